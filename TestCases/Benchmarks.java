@@ -0,0 +1,274 @@
+// Benchmarks.java
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput and latency measurements. They are too slow and too machine-dependent for the
+ * unit suite, so they are not JUnit tests; run them on demand after compiling src/ and TestCases/:
+ *
+ *     java Benchmarks                 all of them
+ *     java Benchmarks login-scaling   just the named ones
+ */
+public class Benchmarks {
+    private interface Benchmark {
+        void run() throws Exception;
+    }
+
+    private static final String PASSWORD = "SecurePass123!";
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("login-scaling", Benchmarks::loginScaling);
+        BENCHMARKS.put("user-import", Benchmarks::userImport);
+        BENCHMARKS.put("session-validation", Benchmarks::sessionValidation);
+        BENCHMARKS.put("message-body", Benchmarks::messageBody);
+        BENCHMARKS.put("folder-cache", Benchmarks::folderCache);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = args.length > 0 ? List.of(args) : new ArrayList<>(BENCHMARKS.keySet());
+        for (String name : names) {
+            Benchmark benchmark = BENCHMARKS.get(name);
+            if (benchmark == null) {
+                System.err.println("Unknown benchmark: " + name + " (known: " + BENCHMARKS.keySet() + ")");
+                System.exit(1);
+            }
+            System.out.println("== " + name);
+            benchmark.run();
+        }
+    }
+
+    // Login throughput as threads are added; linear scaling keeps the per-thread rate near 1.00x
+    private static void loginScaling() throws Exception {
+        // Low PBKDF2 cost so that locking, not hashing, dominates
+        try (UserManager userManager = new UserManager(new Pbkdf2PasswordHasher(1_000), THREADS, 10_000)) {
+            int users = 256;
+            for (int i = 0; i < users; i++) {
+                userManager.registerUser("load" + i + "user", PASSWORD);
+            }
+
+            double baseline = 0;
+            for (int threads = 1; threads <= THREADS; threads *= 2) {
+                double perSecond = measureLogins(userManager, threads, users, 2_000);
+                if (threads == 1) {
+                    baseline = perSecond;
+                }
+                System.out.printf("%2d threads -> %,.0f logins/s (%.2fx, %.0f%% of linear)%n",
+                                  threads, perSecond, perSecond / baseline, 100 * perSecond / (baseline * threads));
+            }
+        }
+    }
+
+    private static double measureLogins(UserManager userManager, int threads, int users,
+                                        int loginsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < loginsPerThread; i++) {
+                    String username = "load" + ((offset + i) % users) + "user";
+                    userManager.invalidateSession(userManager.login(username, PASSWORD).sessionToken);
+                }
+                return null;
+            }));
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - began;
+        executor.shutdown();
+
+        return (double) threads * loginsPerThread / (elapsed / 1_000_000_000.0);
+    }
+
+    // Rows per second importing a synthetic class roster into a sink that accepts every row
+    private static void userImport() throws Exception {
+        int rows = 5_000;
+        StringBuilder csv = new StringBuilder("username,password,role\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append("student").append(i).append(",SecurePass123!,student\n");
+        }
+
+        UserImporter.ImportReport report;
+        try (UserImporter importer = new UserImporter(users -> {
+            Set<String> created = new LinkedHashSet<>();
+            for (DatabaseHelper.NewUser user : users) {
+                created.add(user.username);
+            }
+            return created;
+        }, new Pbkdf2PasswordHasher(1_000))) {
+            report = importer.importFrom(new BufferedReader(new StringReader(csv.toString())));
+        }
+
+        System.out.printf("%,d rows (%,d imported) in %.2f s: %,.0f rows/s%n", rows,
+                          report.count(UserImporter.Status.IMPORTED), report.elapsedNanos / 1e9,
+                          report.rowsPerSecond());
+    }
+
+    private interface Check {
+        boolean run() throws Exception;
+    }
+
+    /**
+     * Validations per second for signed tokens and the in-process SessionStore against the
+     * per-request sessions table lookup they replace. With -Dbenchmark.db.url (and .user,
+     * .password, plus an existing account in -Dbenchmark.db.username) the lookup is
+     * DatabaseHelper.validateSession on that database; otherwise it is a stand-in that pays
+     * -Dbenchmark.db.roundTripMicros (default 200, about a loopback PostgreSQL query) per check.
+     */
+    private static void sessionValidation() throws Exception {
+        SignedSessionTokens signed = new SignedSessionTokens();
+        String signedToken = signed.create("john.doe123");
+        try (SessionStore store = new SessionStore()) {
+            String storedToken = store.create("john.doe123");
+            for (int round = 0; round < 2; round++) {  // the first round is warm-up
+                System.out.printf("signed %,.0f/s, session cache %,.0f/s%n",
+                                  measure(200_000, () -> signed.validate(signedToken)),
+                                  measure(200_000, () -> store.validate(storedToken)));
+            }
+        }
+
+        String url = System.getProperty("benchmark.db.url");
+        if (url != null) {
+            String username = System.getProperty("benchmark.db.username", "benchmark.user");
+            String token = UUID.randomUUID().toString();
+            try (DatabaseHelper db = new DatabaseHelper(url, System.getProperty("benchmark.db.user"),
+                                                        System.getProperty("benchmark.db.password"))) {
+                db.createSession(username, token, LocalDateTime.now().plusMinutes(30));
+                try {
+                    measure(200, () -> db.validateSession(username, token));
+                    System.out.printf("sessions table %,.0f/s%n",
+                                      measure(5_000, () -> db.validateSession(username, token)));
+                } finally {
+                    db.invalidateSession(token);
+                }
+            }
+        } else {
+            long roundTripNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong("benchmark.db.roundTripMicros", 200));
+            System.out.printf("sessions table (simulated %d us round trip) %,.0f/s%n",
+                              TimeUnit.NANOSECONDS.toMicros(roundTripNanos), measure(5_000, () -> {
+                                  LockSupport.parkNanos(roundTripNanos);
+                                  return true;
+                              }));
+        }
+    }
+
+    private static double measure(int iterations, Check check) throws Exception {
+        long began = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (!check.run()) {
+                throw new IllegalStateException("Session did not validate");
+            }
+        }
+        return iterations / ((System.nanoTime() - began) / 1_000_000_000.0);
+    }
+
+    // Stored size and encode/decode cost of MessageBody across body sizes, one line per size
+    private static void messageBody() {
+        String[] words = {
+            "the", "phase", "deliverable", "rubric", "review", "please", "submit", "question",
+            "answer", "student", "reviewer", "deadline", "thanks", "about", "update", "team"
+        };
+        Random random = new Random(42);
+        for (int size : new int[] {512, 2048, 16_384, 131_072}) {
+            StringBuilder prose = new StringBuilder(size + 16);
+            while (prose.length() < size) {
+                prose.append(words[random.nextInt(words.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+            }
+            String text = prose.substring(0, size);
+            int iterations = Math.max(20, 2_000_000 / size);
+            MessageBody body = null;
+
+            long started = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                body = MessageBody.encode(text, 256);
+            }
+            double encodeMicros = (System.nanoTime() - started) / 1000.0 / iterations;
+
+            started = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                MessageBody.stored(body.getCodec(), body.getStoredBytes(), body.getLength()).text();
+            }
+            double decodeMicros = (System.nanoTime() - started) / 1000.0 / iterations;
+            if (!text.equals(MessageBody.stored(body.getCodec(), body.getStoredBytes(), body.getLength()).text())) {
+                throw new IllegalStateException("Body did not round-trip at " + size + " B");
+            }
+
+            // Wire and disk carry the stored bytes; an undecoded row holds them on the heap too,
+            // where a decoded Latin-1 String holds about one byte per character
+            System.out.printf("body %,7d B: stored %,7d B (%4.1f%%), encode %8.1f us, decode %7.1f us%n",
+                              size, body.getStoredBytes().length, 100.0 * body.getStoredBytes().length / size,
+                              encodeMicros, decodeMicros);
+        }
+    }
+
+    // Refreshing an unchanged folder (summary plus first page) from FolderPageCache
+    private static void folderCache() throws Exception {
+        int[] reads = new int[1];
+        FolderSource source = new FolderSource() {
+            @Override
+            public DatabaseHelper.FolderSummary getFolderSummary(String username) {
+                reads[0]++;
+                return new DatabaseHelper.FolderSummary(50, 10, 20, 0, 1, 1, 1);
+            }
+
+            @Override
+            public DatabaseHelper.PageCursor getPageCursor(DatabaseHelper.Folder folder, DatabaseHelper.SortKey sort,
+                                                           String username, int offset) {
+                return null;
+            }
+
+            @Override
+            public DatabaseHelper.Page<DatabaseHelper.EmailHeader> getHeaderPage(DatabaseHelper.Folder folder,
+                                                                                 DatabaseHelper.SortKey sort,
+                                                                                 String username,
+                                                                                 DatabaseHelper.PageCursor after,
+                                                                                 int pageSize) {
+                reads[0]++;
+                List<DatabaseHelper.EmailHeader> items = new ArrayList<>(pageSize);
+                for (int i = 0; i < pageSize; i++) {
+                    items.add(new DatabaseHelper.EmailHeader(i + 1, "student" + i, username, "Phase 2 question " + i,
+                                                             LocalDateTime.of(2024, 3, 1, 9, 0), "SENT", false));
+                }
+                return new DatabaseHelper.Page<>(items, null);
+            }
+        };
+        FolderPageCache.Settings settings = new FolderPageCache.Settings();
+        settings.revalidateMillis = 60_000;
+        FolderPageCache cache = new FolderPageCache(source, settings);
+
+        int iterations = 200_000;
+        long started = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            cache.getFolderSummary("reviewer1").total(DatabaseHelper.Folder.INBOX);
+            cache.getHeaderPage(DatabaseHelper.Folder.INBOX, DatabaseHelper.SortKey.DATE, "reviewer1", null, 50);
+        }
+        double micros = (System.nanoTime() - started) / 1000.0 / iterations;
+
+        FolderPageCache.Stats stats = cache.getStats();
+        System.out.printf("unchanged refresh: %.3f us, hit rate %.4f, %d source reads, %d entries, ~%,d B%n",
+                          micros, stats.hitRate(), reads[0], stats.entries, stats.estimatedBytes);
+    }
+}
@@ -0,0 +1,84 @@
+// EmailThreadingTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+public class EmailThreadingTest {
+    private static final String QUESTION = "How do I submit the phase 2 deliverable?";
+
+    private Email original;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        original = new Email(42, "student1", "reviewer1", "Phase 2", QUESTION,
+                             LocalDateTime.of(2024, 3, 1, 9, 0), Email.EmailStatus.SENT, false);
+    }
+
+    @Test
+    // A reply references the original and starts its thread instead of copying the body
+    void testReplyReferencesOriginal() {
+        Email reply = original.createReply();
+        assertEquals("student1", reply.getToUser());
+        assertEquals("Re: Phase 2", reply.getSubject());
+        assertEquals("", reply.getContent());
+        assertEquals(42, reply.getParentId());
+        assertEquals(42, reply.getThreadId());
+    }
+
+    @Test
+    // Replies further down the chain stay in the first message's thread without stacking prefixes
+    void testReplyChainStaysInThread() {
+        Email first = original.createReply();
+        first.setId(43);
+        Email second = first.createReply();
+        assertEquals(43, second.getParentId());
+        assertEquals(42, second.getThreadId());
+        assertEquals("Re: Phase 2", second.getSubject());
+    }
+
+    @Test
+    // A forward points at the original but opens a thread of its own
+    void testForwardStartsNewThread() {
+        Email forward = original.createForward();
+        assertEquals("Fwd: Phase 2", forward.getSubject());
+        assertEquals(42, forward.getParentId());
+        assertEquals(0, forward.getThreadId());
+        assertEquals("", forward.getContent());
+    }
+
+    @Test
+    // The quoted block is rendered from the original only when it is displayed
+    void testFormatQuoted() {
+        String quoted = original.formatQuoted(false);
+        assertTrue(quoted.contains("-------- Original Message --------"));
+        assertTrue(quoted.contains("From: student1"));
+        assertTrue(quoted.endsWith(QUESTION));
+        assertTrue(original.formatQuoted(true).contains("-------- Forwarded Message --------"));
+    }
+
+    @Test
+    // Stored text grows linearly with the length of a thread, not quadratically
+    void testThreadStorageIsLinear() {
+        int messages = 200;
+        String text = "Thanks, one more question about the rubric.";
+        Email current = original;
+        long stored = original.getContent().length();
+        for (int i = 1; i < messages; i++) {
+            Email reply = current.createReply();
+            reply.setId(original.getId() + i);
+            reply.setFromUser(current.getToUser());
+            reply.setContent(text);
+            stored += reply.getContent().length();
+            current = reply;
+        }
+
+        // Copying every ancestor inline would store about messages^2 / 2 texts
+        assertEquals(QUESTION.length() + (long) (messages - 1) * text.length(), stored);
+        assertEquals(42, current.getThreadId());
+    }
+}
@@ -0,0 +1,242 @@
+// FolderPageCacheTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class FolderPageCacheTest {
+    private static final DatabaseHelper.SortKey DATE = DatabaseHelper.SortKey.DATE;
+    private static final DatabaseHelper.Folder INBOX = DatabaseHelper.Folder.INBOX;
+    private static final DatabaseHelper.Folder SENT = DatabaseHelper.Folder.SENT;
+    private static final DatabaseHelper.Folder DRAFTS = DatabaseHelper.Folder.DRAFTS;
+
+    // Counts the reads that reach the "database"
+    private static class CountingSource implements FolderSource {
+        int summaryReads;
+        int pageReads;
+        long inboxRevision = 1;
+        long draftRevision = 1;
+        Runnable duringPageRead;
+
+        @Override
+        public DatabaseHelper.FolderSummary getFolderSummary(String username) {
+            summaryReads++;
+            return new DatabaseHelper.FolderSummary(50, 10, 20, 3, inboxRevision, 1, draftRevision);
+        }
+
+        // What the counters trigger does for a draft edit that changes only subject, body or date
+        void editDraft() {
+            draftRevision++;
+        }
+
+        @Override
+        public DatabaseHelper.PageCursor getPageCursor(DatabaseHelper.Folder folder, DatabaseHelper.SortKey sort,
+                                                       String username, int offset) {
+            return new DatabaseHelper.PageCursor(LocalDateTime.of(2024, 3, 1, 9, 0), 1000 - offset);
+        }
+
+        @Override
+        public DatabaseHelper.Page<DatabaseHelper.EmailHeader> getHeaderPage(DatabaseHelper.Folder folder,
+                                                                             DatabaseHelper.SortKey sort,
+                                                                             String username,
+                                                                             DatabaseHelper.PageCursor after,
+                                                                             int pageSize) {
+            pageReads++;
+            if (duringPageRead != null) {
+                duringPageRead.run();
+            }
+            List<DatabaseHelper.EmailHeader> items = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                items.add(new DatabaseHelper.EmailHeader(i + 1, "student" + i, username, "Phase 2 question " + i,
+                                                         LocalDateTime.of(2024, 3, 1, 9, 0), "SENT", false));
+            }
+            return new DatabaseHelper.Page<>(items, null);
+        }
+    }
+
+    private CountingSource source;
+    private FolderPageCache.Settings settings;
+    private FolderPageCache cache;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        source = new CountingSource();
+        settings = new FolderPageCache.Settings();
+        cache = new FolderPageCache(source, settings);
+    }
+
+    private DatabaseHelper.Email sent(String from, String to) {
+        return new DatabaseHelper.Email(1, from, to, "Phase 2", "", LocalDateTime.now(), "SENT", false);
+    }
+
+    @Test
+    // A second read of an unchanged folder page does not reach the source
+    void testRepeatReadIsHit() throws SQLException {
+        DatabaseHelper.Page<DatabaseHelper.EmailHeader> first = cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        DatabaseHelper.Page<DatabaseHelper.EmailHeader> second = cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        assertSame(first, second);
+        assertEquals(1, source.pageReads);
+
+        FolderPageCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(0.5, stats.hitRate());
+        assertTrue(stats.estimatedBytes > 0);
+    }
+
+    @Test
+    // A send drops the recipient's inbox and the sender's sent folder, nothing else
+    void testSendInvalidatesRecipientOnly() throws SQLException {
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(INBOX, DATE, "reviewer2", null, 50);
+        cache.getHeaderPage(SENT, DATE, "student1", null, 50);
+        cache.getHeaderPage(INBOX, DATE, "student1", null, 50);
+
+        cache.emailAdded(sent("student1", "reviewer1"));
+
+        cache.getHeaderPage(INBOX, DATE, "reviewer2", null, 50);
+        cache.getHeaderPage(INBOX, DATE, "student1", null, 50);
+        assertEquals(4, source.pageReads);
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(SENT, DATE, "student1", null, 50);
+        assertEquals(6, source.pageReads);
+    }
+
+    @Test
+    // Marking a message read drops the reader's inbox and summary but keeps their other folders
+    void testReadStateInvalidatesInbox() throws SQLException {
+        cache.getFolderSummary("reviewer1");
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(SENT, DATE, "reviewer1", null, 50);
+
+        cache.readStateChanged(new int[] {7}, "reviewer1", true);
+
+        cache.getHeaderPage(SENT, DATE, "reviewer1", null, 50);
+        assertEquals(2, source.pageReads);
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getFolderSummary("reviewer1");
+        assertEquals(3, source.pageReads);
+        assertEquals(2, source.summaryReads);
+    }
+
+    @Test
+    // Deleting a message drops every folder of the users involved
+    void testDeleteInvalidatesAffectedUsers() throws SQLException {
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(SENT, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(INBOX, DATE, "reviewer2", null, 50);
+
+        cache.emailsDeleted(new int[] {7}, Collections.singleton("reviewer1"));
+
+        cache.getHeaderPage(INBOX, DATE, "reviewer2", null, 50);
+        assertEquals(3, source.pageReads);
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(SENT, DATE, "reviewer1", null, 50);
+        assertEquals(5, source.pageReads);
+        assertEquals(2, cache.getStats().invalidations);
+    }
+
+    @Test
+    // The estimated size stays under maxBytes by evicting the least recently used pages
+    void testEvictsBySize() throws SQLException {
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        long pageBytes = cache.getStats().estimatedBytes;
+        settings.maxBytes = pageBytes * 3;
+
+        for (int i = 1; i <= 5; i++) {
+            cache.getHeaderPage(INBOX, DATE, "user" + i, null, 50);
+        }
+        FolderPageCache.Stats stats = cache.getStats();
+        assertEquals(3, stats.entries);
+        assertEquals(3, stats.evictions);
+        assertTrue(stats.estimatedBytes <= settings.maxBytes);
+
+        // The most recently used pages survived
+        cache.getHeaderPage(INBOX, DATE, "user5", null, 50);
+        assertEquals(6, source.pageReads);
+    }
+
+    @Test
+    // A page loaded while its folder is being invalidated is returned but not cached
+    void testLoadRacingInvalidationIsNotCached() throws SQLException {
+        source.duringPageRead = () -> cache.emailAdded(sent("student1", "reviewer1"));
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        source.duringPageRead = null;
+
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        assertEquals(2, source.pageReads);
+    }
+
+    @Test
+    // A change by another client shows up as a new revision and drops that folder once revalidated
+    void testRevisionChangeFromOtherClient() throws SQLException {
+        settings.revalidateMillis = 0;
+        cache.getFolderSummary("reviewer1");
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(SENT, DATE, "reviewer1", null, 50);
+
+        cache.getFolderSummary("reviewer1");
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        assertEquals(2, source.pageReads);
+
+        source.inboxRevision++;
+        cache.getFolderSummary("reviewer1");
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        cache.getHeaderPage(SENT, DATE, "reviewer1", null, 50);
+        assertEquals(3, source.pageReads);
+    }
+
+    @Test
+    // A draft edited through another client's cache drops this cache's drafts pages once revalidated
+    void testDraftEditedThroughSecondSource() throws SQLException {
+        settings.revalidateMillis = 0;
+        FolderPageCache otherClient = new FolderPageCache(source, new FolderPageCache.Settings());
+        cache.getFolderSummary("student1");
+        cache.getHeaderPage(DRAFTS, DATE, "student1", null, 50);
+        otherClient.getHeaderPage(DRAFTS, DATE, "student1", null, 50);
+        assertEquals(2, source.pageReads);
+
+        // Only the other client hears the event; this one must notice the revision
+        source.editDraft();
+        otherClient.draftUpdated(new DatabaseHelper.Email(7, "student1", "reviewer1", "Phase 2 (edited)", "",
+                                                          LocalDateTime.now(), "DRAFT", false));
+
+        cache.getFolderSummary("student1");
+        cache.getHeaderPage(DRAFTS, DATE, "student1", null, 50);
+        assertEquals(3, source.pageReads);
+        cache.getHeaderPage(DRAFTS, DATE, "student1", null, 50);
+        assertEquals(3, source.pageReads);
+    }
+
+    @Test
+    // Per-user bookkeeping goes once nothing of the user's is cached, and events for others add none
+    void testIdleUsersArePruned() throws SQLException {
+        cache.getHeaderPage(INBOX, DATE, "reviewer1", null, 50);
+        long pageBytes = cache.getStats().estimatedBytes;
+        settings.maxBytes = pageBytes * 2;
+        for (int i = 1; i <= 5; i++) {
+            cache.getHeaderPage(INBOX, DATE, "user" + i, null, 50);
+        }
+        assertEquals(2, cache.getStats().users);
+
+        for (int i = 0; i < 100; i++) {
+            cache.emailAdded(sent("student" + i, "reviewer" + i));
+        }
+        assertEquals(2, cache.getStats().users);
+
+        cache.invalidate("user4", INBOX);
+        cache.invalidate("user5", INBOX);
+        FolderPageCache.Stats stats = cache.getStats();
+        assertEquals(0, stats.users);
+        assertEquals(0, stats.entries);
+        assertEquals(0, stats.estimatedBytes);
+    }
+}
@@ -3,6 +3,7 @@
 // Import required JUnit packages for testing
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class InputValidationTest {
@@ -18,6 +19,12 @@ public class InputValidationTest {
         email = new Email();
     }
 
+    // This method runs after each test
+    @AfterEach
+    void tearDown() {
+        userManager.close();
+    }
+
     // USERNAME VALIDATION TESTS
 
     @Test
@@ -110,42 +117,32 @@ public class InputValidationTest {
             "Password without special character should be invalid");
     }
 
-    // Helper methods to simulate validation logic
-    // In real implementation, these would be in UserManager class
-    private boolean isValidUsername(String username) {
-        if (username == null || username.length() < 6 || username.length() > 30) {
-            return false;
-        }
-
-        // Check if username contains only allowed characters
-        if (!username.matches("^[a-zA-Z0-9._]+$")) {
-            return false;
-        }
-
-        // Check if username starts or ends with dot
-        if (username.startsWith(".") || username.endsWith(".")) {
-            return false;
-        }
+    @Test
+    // Every broken rule is reported at once, not just the first
+    void testAllViolationsReported() {
+        int violations = InputValidator.checkPassword("short");
+        assertTrue(InputValidator.has(violations, InputValidator.Rule.PASSWORD_LENGTH));
+        assertTrue(InputValidator.has(violations, InputValidator.Rule.PASSWORD_NO_UPPERCASE));
+        assertTrue(InputValidator.has(violations, InputValidator.Rule.PASSWORD_NO_DIGIT));
+        assertTrue(InputValidator.has(violations, InputValidator.Rule.PASSWORD_NO_SPECIAL));
+        assertFalse(InputValidator.has(violations, InputValidator.Rule.PASSWORD_NO_LOWERCASE));
+        assertEquals(4, InputValidator.messages(violations).size());
+    }
 
-        // Check for consecutive dots
-        if (username.contains("..")) {
-            return false;
-        }
+    @Test
+    // registerUser reports the same message the shared rule set produces
+    void testRegisterUserUsesSharedRules() {
+        String expected = InputValidator.firstMessage(InputValidator.checkUsername("_johndoe"));
+        assertEquals(expected, userManager.registerUser("_johndoe", "SecurePass123!").message);
+    }
 
-        return true;
+    // Helper methods delegate to the same rule set UserManager.registerUser uses
+    private boolean isValidUsername(String username) {
+        return InputValidator.checkUsername(username) == 0;
     }
 
     private boolean isValidPassword(String password) {
-        if (password == null || password.length() < 8) {
-            return false;
-        }
-
-        boolean hasUpper = password.matches(".*[A-Z].*");
-        boolean hasLower = password.matches(".*[a-z].*");
-        boolean hasNumber = password.matches(".*\\d.*");
-        boolean hasSpecial = password.matches(".*[!@#$%^&*()].*");
-
-        return hasUpper && hasLower && hasNumber && hasSpecial;
+        return InputValidator.checkPassword(password) == 0;
     }
 }
 
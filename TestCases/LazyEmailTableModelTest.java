@@ -0,0 +1,243 @@
+// LazyEmailTableModelTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.swing.SwingUtilities;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LazyEmailTableModelTest {
+    private static final int FOLDER_SIZE = 100_000;
+    private static final LocalDateTime NEWEST = LocalDateTime.of(2024, 2, 7, 12, 0);
+
+    private final AtomicInteger pagesRead = new AtomicInteger();
+    private final AtomicInteger seeks = new AtomicInteger();
+    private final AtomicReference<DatabaseHelper.SortKey> lastSort = new AtomicReference<>();
+    private LazyEmailTableModel model;
+
+    // Folder of FOLDER_SIZE messages, newest first, generated on demand instead of stored
+    private final LazyEmailTableModel.HeaderSource source = new LazyEmailTableModel.HeaderSource() {
+        @Override
+        public int count() {
+            return FOLDER_SIZE;
+        }
+
+        @Override
+        public DatabaseHelper.PageCursor cursorAt(DatabaseHelper.SortKey sort, int offset) {
+            seeks.incrementAndGet();
+            return offset >= FOLDER_SIZE ? null : cursorFor(offset - 1);
+        }
+
+        @Override
+        public DatabaseHelper.Page<DatabaseHelper.EmailHeader> page(DatabaseHelper.SortKey sort,
+                                                                    DatabaseHelper.PageCursor after, int pageSize) {
+            pagesRead.incrementAndGet();
+            lastSort.set(sort);
+            int first = after == null ? 0 : FOLDER_SIZE - after.emailId + 1;
+            List<DatabaseHelper.EmailHeader> items = new ArrayList<>();
+            for (int i = first; i < Math.min(first + pageSize, FOLDER_SIZE); i++) {
+                items.add(new DatabaseHelper.EmailHeader(FOLDER_SIZE - i, "sender" + i, "john.doe123",
+                    "Subject " + i, NEWEST.minusMinutes(i), "SENT", false));
+            }
+            int last = first + items.size() - 1;
+            return new DatabaseHelper.Page<>(items, last < FOLDER_SIZE - 1 ? cursorFor(last) : null);
+        }
+    };
+
+    private static DatabaseHelper.PageCursor cursorFor(int position) {
+        return new DatabaseHelper.PageCursor(NEWEST.minusMinutes(position), FOLDER_SIZE - position);
+    }
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() throws Exception {
+        model = onEdt(() -> new LazyEmailTableModel(source, "john.doe123", 50, 4));
+        onEdt(() -> {
+            model.reload();
+            return null;
+        });
+        waitFor(() -> model.getRowCount() == FOLDER_SIZE);
+    }
+
+    @Test
+    // The full row count is known up front, but only the blocks asked for are read
+    void testOpensWithoutReadingRows() throws Exception {
+        assertEquals(0, pagesRead.get());
+        assertEquals("Loading...", onEdt(() -> model.getValueAt(0, 1)));
+        waitFor(() -> model.getHeader(0) != null);
+        assertEquals("sender0", onEdt(() -> model.getValueAt(0, 0)));
+        assertEquals("Subject 49", onEdt(() -> model.getValueAt(49, 1)));
+        assertEquals(1, pagesRead.get());
+    }
+
+    @Test
+    // Jumping deep into the folder seeks once; the next block follows on from its cursor
+    void testJumpSeeksThenFollowsCursor() throws Exception {
+        onEdt(() -> model.getHeader(90_000));
+        waitFor(() -> model.getHeader(90_000) != null);
+        assertEquals("Subject 90000", onEdt(() -> model.getValueAt(90_000, 1)));
+        assertEquals(1, seeks.get());
+
+        onEdt(() -> model.getHeader(90_050));
+        waitFor(() -> model.getHeader(90_050) != null);
+        assertEquals("Subject 90050", onEdt(() -> model.getValueAt(90_050, 1)));
+        assertEquals(1, seeks.get(), "The following block should not need another seek");
+    }
+
+    @Test
+    // Scrolling through many blocks never keeps more than maxBlocks in memory
+    void testLoadedBlocksAreBounded() throws Exception {
+        for (int block = 0; block < 10; block++) {
+            int row = block * 50;
+            onEdt(() -> model.getHeader(row));
+            waitFor(() -> model.getHeader(row) != null);
+        }
+        assertEquals(4, (int) onEdt(() -> model.getLoadedBlockCount()));
+    }
+
+    @Test
+    // Read state changes apply to the loaded row
+    void testSetRead() throws Exception {
+        onEdt(() -> model.getHeader(3));
+        waitFor(() -> model.getHeader(3) != null);
+        assertEquals("Unread", onEdt(() -> model.getValueAt(3, 3)));
+        onEdt(() -> {
+            model.setRead(3, true);
+            return null;
+        });
+        assertEquals("Read", onEdt(() -> model.getValueAt(3, 3)));
+    }
+
+    @Test
+    // A partly loaded folder is re-read from the server in the new order
+    void testSortLargeFolderOnServer() throws Exception {
+        onEdt(() -> {
+            model.sortBy(DatabaseHelper.SortKey.SUBJECT);
+            return null;
+        });
+        waitFor(() -> model.getRowCount() == FOLDER_SIZE && model.getHeader(0) != null);
+        assertEquals(DatabaseHelper.SortKey.SUBJECT, lastSort.get());
+    }
+
+    @Test
+    // A fully loaded listing sorts in memory on real timestamps, not on the minute-precision display text
+    void testSortLoadedRowsInMemory() throws Exception {
+        LazyEmailTableModel local = onEdt(() -> {
+            LazyEmailTableModel m = new LazyEmailTableModel(null, "john.doe123");
+            m.addLocalRow(new DatabaseHelper.EmailHeader(0, "b.sender", "john.doe123", "Older",
+                NEWEST.withSecond(5), "SENT", false));
+            m.addLocalRow(new DatabaseHelper.EmailHeader(0, "a.sender", "john.doe123", "Newer",
+                NEWEST.withSecond(40), "SENT", false));
+            m.addLocalRow(new DatabaseHelper.EmailHeader(0, "c.sender", "john.doe123", "Oldest",
+                NEWEST.minusDays(1), "SENT", false));
+            m.sortBy(DatabaseHelper.SortKey.DATE);
+            return m;
+        });
+        assertEquals("Newer", onEdt(() -> local.getValueAt(0, 1)));
+        assertEquals("Older", onEdt(() -> local.getValueAt(1, 1)));
+        assertEquals("Oldest", onEdt(() -> local.getValueAt(2, 1)));
+
+        onEdt(() -> {
+            local.sortBy(DatabaseHelper.SortKey.SENDER);
+            return null;
+        });
+        assertEquals("a.sender", onEdt(() -> local.getValueAt(0, 0)));
+        assertEquals("c.sender", onEdt(() -> local.getValueAt(2, 0)));
+    }
+
+    @Test
+    // Re-sorting a partly loaded folder on the server keeps the unsent local rows after it
+    void testServerSortKeepsLocalRows() throws Exception {
+        onEdt(() -> {
+            model.addLocalRow(new DatabaseHelper.EmailHeader(0, "john.doe123", "jane.doe456", "Unsent",
+                NEWEST, "DRAFT", true));
+            model.sortBy(DatabaseHelper.SortKey.SUBJECT);
+            return null;
+        });
+        assertEquals(FOLDER_SIZE + 1, (int) onEdt(() -> model.getRowCount()));
+        assertEquals("Unsent", onEdt(() -> model.getValueAt(FOLDER_SIZE, 1)));
+    }
+
+    @Test
+    // A fully loaded folder is sorted apart from the local rows, with email_id DESC breaking date ties
+    void testInMemorySortKeepsFolderRowsRemote() throws Exception {
+        List<DatabaseHelper.EmailHeader> folder = new ArrayList<>();
+        folder.add(new DatabaseHelper.EmailHeader(7, "a.sender", "john.doe123", "Seven", NEWEST, "SENT", false));
+        folder.add(new DatabaseHelper.EmailHeader(9, "b.sender", "john.doe123", "Nine", NEWEST, "SENT", false));
+        folder.add(new DatabaseHelper.EmailHeader(8, "c.sender", "john.doe123", "Eight", NEWEST, "SENT", false));
+        LazyEmailTableModel.HeaderSource small = new LazyEmailTableModel.HeaderSource() {
+            @Override
+            public int count() {
+                return folder.size();
+            }
+
+            @Override
+            public DatabaseHelper.PageCursor cursorAt(DatabaseHelper.SortKey sort, int offset) {
+                return null;
+            }
+
+            @Override
+            public DatabaseHelper.Page<DatabaseHelper.EmailHeader> page(DatabaseHelper.SortKey sort,
+                                                                        DatabaseHelper.PageCursor after, int pageSize) {
+                return new DatabaseHelper.Page<>(folder, null);
+            }
+        };
+        LazyEmailTableModel listing = onEdt(() -> {
+            LazyEmailTableModel m = new LazyEmailTableModel(small, "john.doe123");
+            m.reload();
+            return m;
+        });
+        waitFor(() -> listing.getRowCount() == 3 && listing.getHeader(0) != null);
+
+        onEdt(() -> {
+            listing.addLocalRow(new DatabaseHelper.EmailHeader(0, "john.doe123", "jane.doe456", "Unsent",
+                NEWEST.plusDays(1), "DRAFT", true));
+            listing.sortBy(DatabaseHelper.SortKey.DATE);
+            return null;
+        });
+        assertEquals(9, (int) onEdt(() -> listing.getHeader(0).id));
+        assertEquals(8, (int) onEdt(() -> listing.getHeader(1).id));
+        assertEquals(7, (int) onEdt(() -> listing.getHeader(2).id));
+        assertEquals("Unsent", onEdt(() -> listing.getValueAt(3, 1)), "Local rows stay after the folder rows");
+
+        // Folder rows are still folder rows: removing one re-reads the folder instead of editing a local list
+        onEdt(() -> {
+            listing.setRead(0, true);
+            listing.removeRows(new int[] {0});
+            return null;
+        });
+        waitFor(() -> listing.getRowCount() == 3 && listing.getHeader(0) != null);
+        assertEquals(7, (int) onEdt(() -> listing.getHeader(0).id), "Re-read in the folder's own order");
+    }
+
+    private static <T> T onEdt(Callable<T> action) throws Exception {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result.set(action.call());
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return result.get();
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!onEdt(condition)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the model");
+            Thread.sleep(10);
+        }
+    }
+}
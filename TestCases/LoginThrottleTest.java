@@ -0,0 +1,174 @@
+// LoginThrottleTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoginThrottleTest {
+    private static final String PASSWORD = "SecurePass123!";
+
+    private LoginThrottle.Settings settings;
+    private LoginThrottle throttle;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        settings = new LoginThrottle.Settings();
+        settings.maxAttemptsPerUser = 3;
+        settings.maxAttemptsPerClient = 5;
+        settings.lockMillis = 200;
+        throttle = new LoginThrottle(null, settings);
+    }
+
+    @Test
+    // Attempts past the per-user limit are refused without being counted
+    void testUserLimit() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire("john.doe123", null));
+        }
+        assertFalse(throttle.tryAcquire("john.doe123", null));
+        assertTrue(throttle.tryAcquire("jane.doe456", null), "Other accounts are unaffected");
+    }
+
+    @Test
+    // One client spraying many usernames hits the client limit
+    void testClientLimit() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(throttle.tryAcquire("victim" + i, "10.0.0.1"));
+        }
+        assertFalse(throttle.tryAcquire("victim9", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("victim9", "10.0.0.2"));
+    }
+
+    @Test
+    // Failures lock the account for a limited time, not forever
+    void testLockExpires() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire("john.doe123", null));
+            assertEquals(2 - i, throttle.recordFailure("john.doe123"));
+        }
+        assertTrue(throttle.isLocked("john.doe123"));
+        Thread.sleep(300);
+        assertFalse(throttle.isLocked("john.doe123"));
+    }
+
+    @Test
+    // A successful login clears the count
+    void testSuccessResets() {
+        assertTrue(throttle.tryAcquire("john.doe123", null));
+        throttle.recordFailure("john.doe123");
+        assertTrue(throttle.tryAcquire("john.doe123", null));
+        throttle.recordSuccess("john.doe123");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire("john.doe123", null));
+        }
+    }
+
+    @Test
+    // Threads racing on one account are admitted exactly up to the limit
+    void testConcurrentAttemptsDoNotOvershoot() throws Exception {
+        settings.maxAttemptsPerUser = 50;
+        int threads = 8;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    if (throttle.tryAcquire("john.doe123", null)) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(50, admitted.get());
+    }
+
+    @Test
+    // Idle windows are purged while new ones are being counted in; every name is still admitted once
+    void testPurgeDoesNotLoseAttempts() throws Exception {
+        settings.maxAttemptsPerUser = 1;
+        int threads = 4;
+        int names = 20_000;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < names; i++) {
+                    if (throttle.tryAcquire("user" + i, null)) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(names, admitted.get());
+    }
+
+    @Test
+    // A window so short that its index no longer fits in 32 bits still enforces the limit
+    void testTinyWindow() throws Exception {
+        settings.userWindowMillis = 300;  // now / 300 is past 2^32
+        while (System.currentTimeMillis() % 300 > 100) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire("john.doe123", null));
+        }
+        assertFalse(throttle.tryAcquire("john.doe123", null));
+    }
+
+    @Test
+    // A login the account limit turns away does not count against the client
+    void testRefusedAttemptNotCountedForClient() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire("john.doe123", "10.0.0.1"));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertFalse(throttle.tryAcquire("john.doe123", "10.0.0.1"));
+        }
+        assertTrue(throttle.tryAcquire("jane.doe456", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("jane.doe456", "10.0.0.1"));
+        assertFalse(throttle.tryAcquire("jane.doe456", "10.0.0.1"));
+    }
+
+    @Test
+    // Through UserManager: a credential-stuffing client is turned away, a different client is not
+    void testUserManagerThrottlesByClient() {
+        try (SessionStore sessions = new SessionStore();
+             UserManager userManager = new UserManager(sessions, throttle, new Pbkdf2PasswordHasher(1_000), 2, 16)) {
+            assertTrue(userManager.registerUser("john.doe123", PASSWORD).success);
+            for (int i = 0; i < 5; i++) {
+                assertFalse(userManager.login("guess" + i + "user", PASSWORD, "10.0.0.1").success);
+            }
+            UserManager.AuthResult blocked = userManager.login("john.doe123", PASSWORD, "10.0.0.1");
+            assertFalse(blocked.success);
+            assertEquals("Too many login attempts. Please try again later.", blocked.message);
+            assertTrue(userManager.login("john.doe123", PASSWORD, "10.0.0.2").success);
+        }
+    }
+}
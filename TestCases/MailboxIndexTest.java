@@ -0,0 +1,176 @@
+// MailboxIndexTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class MailboxIndexTest {
+    private MailboxIndex index;
+    private Path directory;
+    private Path file;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("mailbox");
+        file = directory.resolve("john.doe123.idx");
+        index = new MailboxIndex("john.doe123");
+        index.add(email(1, "Meeting Tomorrow", "Let's review the project schedule."));
+        index.add(email(2, "Project Update", "The schedule slipped by a week."));
+        index.add(email(3, "Weekly Newsletter", "Campus events and project showcases."));
+    }
+
+    // This method runs after each test
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private List<String> snapshotFiles() throws Exception {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString()).filter(name -> !name.equals("john.doe123.idx"))
+                        .sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static DatabaseHelper.Email email(int id, String subject, String content) {
+        return new DatabaseHelper.Email(id, "kyle.smith", "john.doe123", subject, content,
+                                        LocalDateTime.of(2024, 2, 7, 10, 0), "SENT", false);
+    }
+
+    @Test
+    // Every word must match; results come newest first
+    void testSearchAllWords() {
+        assertArrayEquals(new int[] {3, 2, 1}, index.search("project", 10));
+        assertArrayEquals(new int[] {2, 1}, index.search("Project SCHEDULE", 10));
+        assertArrayEquals(new int[0], index.search("project budget", 10));
+    }
+
+    @Test
+    // The last word matches as a prefix while the user is still typing
+    void testPrefixQuery() {
+        assertArrayEquals(new int[] {3, 2, 1}, index.search("proj", 10));
+        assertArrayEquals(new int[] {3, 2}, index.search("week", 10));
+        assertArrayEquals(new int[] {2}, index.search("schedule sl", 10));
+    }
+
+    @Test
+    // Listener events keep the index current
+    void testIncrementalUpdates() {
+        index.emailsDeleted(new int[] {2}, Set.of("john.doe123"));
+        assertArrayEquals(new int[] {1}, index.search("schedule", 10));
+
+        index.draftUpdated(new DatabaseHelper.Email(1, "john.doe123", "kyle.smith", "Meeting moved",
+                                                    "Now on Friday.", LocalDateTime.now(), "DRAFT", false));
+        assertArrayEquals(new int[0], index.search("schedule", 10));
+        assertArrayEquals(new int[] {1}, index.search("friday", 10));
+
+        // Someone else's mail is not indexed
+        index.emailAdded(new DatabaseHelper.Email(9, "a.user1", "b.user2", "Project", "", LocalDateTime.now(), "SENT", false));
+        assertArrayEquals(new int[] {3}, index.search("project", 10));
+    }
+
+    @Test
+    // A saved snapshot loads back into an identical index
+    void testSaveAndLoad() throws Exception {
+        index.save(file);
+        MailboxIndex loaded = new MailboxIndex("john.doe123");
+        assertTrue(loaded.load(file));
+        assertEquals(index.getTermCount(), loaded.getTermCount());
+        assertEquals(3, loaded.getDocumentCount());
+        assertArrayEquals(new int[] {2, 1}, loaded.search("project sched", 10));
+
+        // Deletes after loading still remove every posting of the message
+        loaded.remove(1);
+        assertArrayEquals(new int[] {2}, loaded.search("schedule", 10));
+
+        assertFalse(new MailboxIndex("someone.else").load(file));
+    }
+
+    @Test
+    // Changes after loading are merged with the mapped snapshot and survive the next save
+    void testChangesAfterLoad() throws Exception {
+        index.save(file);
+        MailboxIndex loaded = new MailboxIndex("john.doe123");
+        assertTrue(loaded.load(file));
+
+        // An edit hides the snapshot's postings for that message
+        loaded.draftUpdated(new DatabaseHelper.Email(1, "john.doe123", "kyle.smith", "Meeting moved",
+                                                     "Project review on Friday.", LocalDateTime.now(), "DRAFT", false));
+        loaded.add(email(4, "Project showcase", "Posters due."));
+        assertArrayEquals(new int[] {4, 3, 2, 1}, loaded.search("proj", 10));
+        assertArrayEquals(new int[] {2}, loaded.search("schedule", 10));
+        assertArrayEquals(new int[] {1}, loaded.search("fri", 10));
+        assertArrayEquals(new int[] {4, 3}, loaded.search("project showc", 10));
+        assertEquals(4, loaded.getDocumentCount());
+
+        loaded.save(file);
+        MailboxIndex reloaded = new MailboxIndex("john.doe123");
+        assertTrue(reloaded.load(file));
+        assertEquals(4, reloaded.getDocumentCount());
+        assertArrayEquals(new int[] {2}, reloaded.search("schedule", 10));
+        assertArrayEquals(new int[] {4, 3, 2, 1}, reloaded.search("project", 10));
+        assertArrayEquals(new int[] {1}, reloaded.search("moved", 10));
+    }
+
+    @Test
+    // A truncated snapshot is rejected and leaves the index empty
+    void testTruncatedSnapshot() throws Exception {
+        index.save(file);
+        Path snapshot = directory.resolve(snapshotFiles().get(0));
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 6));
+        MailboxIndex loaded = new MailboxIndex("john.doe123");
+        assertFalse(loaded.load(file));
+        assertEquals(0, loaded.getDocumentCount());
+    }
+
+    @Test
+    // Saving while the current snapshot is mapped writes a new generation and repoints the file;
+    // the mapped one keeps answering queries
+    void testSaveWhileMapped() throws Exception {
+        index.save(file);
+        assertEquals(List.of("john.doe123.idx.1"), snapshotFiles());
+        MailboxIndex loaded = new MailboxIndex("john.doe123");
+        assertTrue(loaded.load(file));
+
+        loaded.add(email(4, "Project showcase", "Posters due."));
+        loaded.save(file);
+        assertEquals("john.doe123.idx.2", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        assertArrayEquals(new int[] {4, 3, 2, 1}, loaded.search("project", 10));
+
+        MailboxIndex reloaded = new MailboxIndex("john.doe123");
+        assertTrue(reloaded.load(file));
+        assertEquals(4, reloaded.getDocumentCount());
+        // Generation 1 is gone where the platform lets a mapped file be deleted
+        assertTrue(snapshotFiles().contains("john.doe123.idx.2"));
+        assertFalse(snapshotFiles().contains("john.doe123.idx.tmp"));
+    }
+
+    @Test
+    // A pointer to a missing or foreign file is rejected
+    void testBadPointer() throws Exception {
+        index.save(file);
+        Files.write(file, "john.doe123.idx.7".getBytes(StandardCharsets.UTF_8));
+        assertFalse(new MailboxIndex("john.doe123").load(file));
+        Files.write(file, "../elsewhere.idx.1".getBytes(StandardCharsets.UTF_8));
+        assertFalse(new MailboxIndex("john.doe123").load(file));
+    }
+}
@@ -0,0 +1,71 @@
+// MessageBodyTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+public class MessageBodyTest {
+    private static final String[] WORDS = {
+        "the", "phase", "deliverable", "rubric", "review", "please", "submit", "question",
+        "answer", "student", "reviewer", "deadline", "thanks", "about", "update", "team"
+    };
+
+    private Random random;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        random = new Random(42);
+    }
+
+    private String prose(int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        return text.substring(0, length);
+    }
+
+    @Test
+    // Bodies under the threshold are stored as plain UTF-8
+    void testSmallBodyStaysPlain() {
+        MessageBody body = MessageBody.encode("See you at the review.", MessageBody.DEFAULT_THRESHOLD);
+        assertEquals(MessageBody.Codec.PLAIN, body.getCodec());
+        assertEquals("See you at the review.", body.text());
+    }
+
+    @Test
+    // Large text is deflated and round-trips, including non-ASCII characters
+    void testLargeBodyIsCompressed() {
+        String text = prose(8000) + " caf\u00e9 \u4f60\u597d";
+        MessageBody body = MessageBody.encode(text, MessageBody.DEFAULT_THRESHOLD);
+        assertEquals(MessageBody.Codec.DEFLATE, body.getCodec());
+        assertTrue(body.getStoredBytes().length < body.getLength() / 2);
+
+        MessageBody stored = MessageBody.stored(body.getCodec(), body.getStoredBytes(), body.getLength());
+        assertEquals(text, stored.text());
+    }
+
+    @Test
+    // The size threshold is configurable
+    void testThreshold() {
+        String text = prose(2000);
+        assertEquals(MessageBody.Codec.PLAIN, MessageBody.encode(text, 4096).getCodec());
+        assertEquals(MessageBody.Codec.DEFLATE, MessageBody.encode(text, 1024).getCodec());
+    }
+
+    @Test
+    // A body read from storage is not inflated until its text is asked for
+    void testStoredBodyDecodesLazily() {
+        MessageBody encoded = MessageBody.encode(prose(4000), 1024);
+        MessageBody stored = MessageBody.stored(encoded.getCodec(), encoded.getStoredBytes(), encoded.getLength());
+        DatabaseHelper.Email email = new DatabaseHelper.Email(1, "student1", "reviewer1", "Phase 2", stored,
+                                                              null, "SENT", false, 0, 1);
+        assertFalse(stored.isDecoded());
+        assertEquals(encoded.text(), email.getContent());
+        assertTrue(stored.isDecoded());
+    }
+}
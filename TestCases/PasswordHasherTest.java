@@ -0,0 +1,61 @@
+// PasswordHasherTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.MessageDigest;
+import java.util.Base64;
+
+public class PasswordHasherTest {
+    private static final String PASSWORD = "SecurePass123!";
+
+    private Pbkdf2PasswordHasher hasher;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        hasher = new Pbkdf2PasswordHasher(1_000);
+    }
+
+    @Test
+    // The encoded hash records algorithm and cost, and verifies the right password only
+    void testHashAndVerify() {
+        String encoded = hasher.hash(PASSWORD);
+        assertTrue(encoded.startsWith("pbkdf2-sha256$1000$"), "Hash should record algorithm and cost");
+        assertTrue(hasher.verify(PASSWORD, encoded));
+        assertFalse(hasher.verify("WrongPass123!", encoded));
+    }
+
+    @Test
+    // Two hashes of the same password differ because each gets its own salt
+    void testHashesAreSalted() {
+        assertNotEquals(hasher.hash(PASSWORD), hasher.hash(PASSWORD), "Each hash should use a fresh salt");
+    }
+
+    @Test
+    // Old unsalted SHA-256 hashes still verify but are flagged for rehashing
+    void testLegacyHashIsAcceptedAndFlagged() throws Exception {
+        String legacy = Base64.getEncoder().encodeToString(
+            MessageDigest.getInstance("SHA-256").digest(PASSWORD.getBytes()));
+        assertTrue(hasher.verify(PASSWORD, legacy));
+        assertTrue(hasher.needsRehash(legacy));
+    }
+
+    @Test
+    // Raising the cost makes hashes made at the old cost due for rehashing
+    void testNeedsRehashWhenCostIsRaised() {
+        String encoded = hasher.hash(PASSWORD);
+        assertFalse(hasher.needsRehash(encoded));
+        assertTrue(new Pbkdf2PasswordHasher(2_000).needsRehash(encoded));
+        assertTrue(new Pbkdf2PasswordHasher(2_000).verify(PASSWORD, encoded), "Old cost should still verify");
+    }
+
+    @Test
+    // Garbage in the stored hash never matches
+    void testCorruptHashNeverMatches() {
+        assertFalse(hasher.verify(PASSWORD, "pbkdf2-sha256$abc$!!$!!"));
+        assertFalse(hasher.verify(PASSWORD, null));
+    }
+}
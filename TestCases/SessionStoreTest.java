@@ -0,0 +1,91 @@
+// SessionStoreTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SessionStoreTest {
+    private SessionStore store;
+    private AtomicLong clock;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        // In-memory store on a manual clock, 200 ms TTL and 10 ms wheel ticks; the test calls sweep()
+        clock = new AtomicLong(1_000_005);
+        store = new SessionStore(null, Duration.ofMillis(200), 10, clock::get, false);
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(millis);
+        store.sweep();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    // A new session validates and maps back to its user; unknown tokens do not
+    void testCreateAndValidate() throws Exception {
+        String token = store.create("john.doe123");
+        assertTrue(store.validate(token));
+        assertEquals("john.doe123", store.getUsername(token));
+        assertFalse(store.validate("not-a-token"));
+        assertFalse(store.validate(null));
+    }
+
+    @Test
+    // An idle session expires and the sweeper drops it without anyone touching it
+    void testIdleSessionExpires() throws Exception {
+        String token = store.create("john.doe123");
+        advance(190);
+        assertEquals(1, store.size());
+        advance(20);
+        assertEquals(0, store.size(), "Sweeper should have removed the expired session");
+        assertFalse(store.validate(token));
+    }
+
+    @Test
+    // A session swept in its expiry tick but before its expiry instant goes at the next tick,
+    // not a whole turn of the wheel later
+    void testExpiryLaterInTheSweptTick() throws Exception {
+        // Created 5 ms into a tick, so each expires 5 ms into tick 100,020
+        for (int i = 0; i < 8; i++) {
+            store.create("user" + i);
+        }
+        advance(199);  // sweeps tick 100,020 at 1,000,204, 1 ms before expiry
+        assertEquals(8, store.size());
+        advance(10);   // tick 100,021
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    // Regular activity keeps sliding the expiry forward
+    void testActivityExtendsSession() throws Exception {
+        String token = store.create("john.doe123");
+        for (int i = 0; i < 8; i++) {
+            advance(60);
+            assertTrue(store.validate(token), "Session should still be active after " + (i + 1) * 60 + " ms");
+        }
+        advance(150);
+        assertEquals(1, store.size());
+        advance(60);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    // Invalidated sessions stop validating immediately
+    void testInvalidate() throws Exception {
+        String token = store.create("john.doe123");
+        store.invalidate(token);
+        assertFalse(store.validate(token));
+        assertNull(store.getUsername(token));
+    }
+}
@@ -0,0 +1,73 @@
+// SignedSessionTokensTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+public class SignedSessionTokensTest {
+    private SignedSessionTokens tokens;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        tokens = new SignedSessionTokens(SignedSessionTokens.generateKey(), Duration.ofMillis(200));
+    }
+
+    @Test
+    // A fresh token verifies and carries its username, including non-ASCII names
+    void testCreateAndValidate() {
+        String token = tokens.create("john.doe123");
+        assertTrue(tokens.validate(token));
+        assertEquals("john.doe123", tokens.getUsername(token));
+        assertEquals("zo\u00eb.m\u00fcller", tokens.getUsername(tokens.create("zo\u00eb.m\u00fcller")));
+        assertFalse(tokens.validate(null));
+        assertFalse(tokens.validate("not-a-token"));
+    }
+
+    @Test
+    // Changing any character of the token, or signing with another key, breaks the MAC
+    void testTamperedTokenRejected() {
+        String token = tokens.create("john.doe123");
+        String forged = "YWRtaW4" + token.substring(token.indexOf('.'));  // "admin"
+        assertFalse(tokens.validate(forged));
+        char last = token.charAt(token.length() - 1);
+        assertFalse(tokens.validate(token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A')));
+
+        SignedSessionTokens other = new SignedSessionTokens();
+        assertFalse(other.validate(token));
+    }
+
+    @Test
+    // Tokens stop validating at their expiry
+    void testExpiry() throws Exception {
+        String token = tokens.create("john.doe123");
+        Thread.sleep(300);
+        assertFalse(tokens.validate(token));
+    }
+
+    @Test
+    // Logout revokes just that token
+    void testInvalidate() {
+        String first = tokens.create("john.doe123");
+        String second = tokens.create("john.doe123");
+        tokens.invalidate(first);
+        assertFalse(tokens.validate(first));
+        assertTrue(tokens.validate(second));
+        assertEquals(1, tokens.getRevokedCount());
+    }
+
+    @Test
+    // UserManager works unchanged on top of signed tokens
+    void testUserManagerWithSignedTokens() {
+        try (UserManager userManager = new UserManager(new SignedSessionTokens(), new Pbkdf2PasswordHasher(1_000), 2, 16)) {
+            assertTrue(userManager.registerUser("john.doe123", "SecurePass123!").success);
+            String token = userManager.login("john.doe123", "SecurePass123!").sessionToken;
+            assertEquals("john.doe123", userManager.getUsernameFromSession(token));
+            userManager.invalidateSession(token);
+            assertFalse(userManager.validateSession(token));
+        }
+    }
+}
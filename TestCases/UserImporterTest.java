@@ -0,0 +1,103 @@
+// UserImporterTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class UserImporterTest {
+    private Map<String, DatabaseHelper.NewUser> stored;
+    private UserImporter importer;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        // In-memory stand-in for DatabaseHelper::insertUsers with the same ON CONFLICT semantics
+        stored = new ConcurrentHashMap<>();
+        UserImporter.UserSink sink = users -> {
+            Set<String> created = new LinkedHashSet<>();
+            for (DatabaseHelper.NewUser user : users) {
+                if (stored.putIfAbsent(user.username, user) == null) {
+                    created.add(user.username);
+                }
+            }
+            return created;
+        };
+        importer = new UserImporter(sink, new Pbkdf2PasswordHasher(1_000), 4, 3);
+    }
+
+    @Test
+    // An imported account can log in through a UserManager that reads the same store
+    void testImportedUserCanLogIn() throws Exception {
+        String csv = "username,password,role\n" +
+                     "grace.hall,SecurePass123!,student\n";
+        importer.importFrom(new BufferedReader(new StringReader(csv)));
+
+        UserDirectory directory = username -> {
+            DatabaseHelper.NewUser user = stored.get(username);
+            return user != null ? user.passwordHash : null;
+        };
+        try (SessionStore sessions = new SessionStore();
+             UserManager userManager = new UserManager(directory, sessions, new LoginThrottle(),
+                                                       new Pbkdf2PasswordHasher(1_000), 2, 16)) {
+            UserManager.AuthResult result = userManager.login("grace.hall", "SecurePass123!");
+            assertTrue(result.success, result.message);
+            assertEquals("grace.hall", userManager.getUsernameFromSession(result.sessionToken));
+
+            assertFalse(userManager.login("grace.hall", "WrongPass123!").success);
+            assertFalse(userManager.login("nobody.here", "SecurePass123!").success);
+            assertFalse(userManager.registerUser("grace.hall", "OtherPass123!").success,
+                "An imported name cannot be registered again");
+        }
+    }
+
+    @Test
+    // CSV with a header row; each row gets its own result, in file order
+    void testCsvImportReportsEveryRow() throws Exception {
+        String csv = "username,password,role\n" +
+                     "alice.smith,SecurePass123!,student\n" +
+                     "bob,SecurePass123!,student\n" +
+                     "carol.jones,\"Pass,word123!\",INSTRUCTOR\n" +
+                     "alice.smith,OtherPass123!,reviewer\n" +
+                     "dave.brown,SecurePass123!,janitor\n";
+
+        UserImporter.ImportReport report = importer.importFrom(new BufferedReader(new StringReader(csv)));
+        List<UserImporter.RowResult> rows = report.rows;
+
+        assertEquals(5, rows.size());
+        assertEquals(UserImporter.Status.IMPORTED, rows.get(0).status);
+        assertEquals(UserImporter.Status.INVALID, rows.get(1).status, "Short username should be rejected");
+        assertEquals(UserImporter.Status.IMPORTED, rows.get(2).status, "Quoted comma belongs to the password");
+        assertEquals(UserImporter.Status.DUPLICATE, rows.get(3).status);
+        assertEquals(UserImporter.Status.INVALID, rows.get(4).status, "Unknown role should be rejected");
+        assertEquals(3, rows.get(1).lineNumber);
+
+        assertEquals("INSTRUCTOR", stored.get("carol.jones").role);
+        assertTrue(stored.get("alice.smith").passwordHash.startsWith("pbkdf2-sha256$"));
+    }
+
+    @Test
+    // JSONL rows; an account that already exists is reported, not overwritten
+    void testJsonlImportSkipsExistingAccounts() throws Exception {
+        stored.put("erin.white", new DatabaseHelper.NewUser("erin.white", "existing", "STAFF"));
+        String jsonl = "{\"username\": \"erin.white\", \"password\": \"SecurePass123!\"}\n" +
+                       "{\"username\": \"frank.green\", \"password\": \"Secure\\\"Pass123\", \"role\": \"reviewer\"}\n" +
+                       "{\"username\": \"broken\n";
+
+        UserImporter.ImportReport report = importer.importFrom(new BufferedReader(new StringReader(jsonl)));
+
+        assertEquals(UserImporter.Status.DUPLICATE, report.rows.get(0).status);
+        assertEquals("existing", stored.get("erin.white").passwordHash);
+        assertEquals(UserImporter.Status.IMPORTED, report.rows.get(1).status);
+        assertEquals("REVIEWER", stored.get("frank.green").role);
+        assertEquals(UserImporter.Status.INVALID, report.rows.get(2).status);
+    }
+}
@@ -0,0 +1,108 @@
+// UserManagerConcurrencyTest.java
+
+// Import required JUnit packages for testing
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UserManagerConcurrencyTest {
+    private static final String PASSWORD = "SecurePass123!";
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private UserManager userManager;
+
+    // This method runs before each test
+    @BeforeEach
+    void setUp() {
+        // Low PBKDF2 cost keeps the test fast; the locking behaviour does not depend on it
+        userManager = new UserManager(new Pbkdf2PasswordHasher(1_000), THREADS, 10_000);
+    }
+
+    // This method runs after each test
+    @AfterEach
+    void tearDown() {
+        userManager.close();
+    }
+
+    @Test
+    // Many threads racing to register the same username: exactly one may win
+    void testConcurrentRegistrationIsUnique() throws Exception {
+        AtomicInteger successes = new AtomicInteger();
+        runConcurrently(THREADS * 4, i -> {
+            if (userManager.registerUser("racer.user", PASSWORD).success) {
+                successes.incrementAndGet();
+            }
+        });
+
+        assertEquals(1, successes.get(), "Only one registration of a username should succeed");
+    }
+
+    @Test
+    // Concurrent logins for different users all succeed with distinct session tokens
+    void testConcurrentLoginsCreateDistinctSessions() throws Exception {
+        int users = THREADS * 8;
+        for (int i = 0; i < users; i++) {
+            assertTrue(userManager.registerUser("student" + i, PASSWORD).success);
+        }
+
+        Set<String> tokens = ConcurrentHashMap.newKeySet();
+        runConcurrently(users, i -> {
+            UserManager.AuthResult result = userManager.login("student" + i, PASSWORD);
+            assertTrue(result.success, "Login should succeed for student" + i);
+            tokens.add(result.sessionToken);
+        });
+
+        assertEquals(users, tokens.size(), "Every login should get its own session");
+        for (String token : tokens) {
+            assertTrue(userManager.validateSession(token));
+        }
+    }
+
+    @Test
+    // Failed attempts from many threads are all counted, so the account still locks
+    void testConcurrentFailuresAreNotLost() throws Exception {
+        assertTrue(userManager.registerUser("target.user", PASSWORD).success);
+
+        runConcurrently(THREADS * 4, i -> userManager.login("target.user", "WrongPass123!"));
+
+        UserManager.AuthResult result = userManager.login("target.user", PASSWORD);
+        assertFalse(result.success, "Account should be locked after concurrent failures");
+    }
+
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+
+    // Releases all tasks at once so they genuinely overlap, then rethrows any failure
+    private void runConcurrently(int tasks, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(index);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,220 @@
+// ConnectionPool.java
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final Settings settings;
+
+    // Idle connections, most recently returned first so cold ones drift to the tail and get evicted
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    // One permit per borrowed connection; new connections are only opened when none are idle,
+    // so borrowed + idle never exceeds maxSize
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    public static class Settings {
+        public int maxSize = 10;
+        public int minIdle = 1;
+        public long maxWaitMillis = 5000;
+        public long idleTimeoutMillis = 5 * 60 * 1000;
+        public long evictionIntervalMillis = 30 * 1000;
+        // Connections idle for less than this are handed out without a validation round trip
+        public long validateAfterIdleMillis = 1000;
+        public int validationTimeoutSeconds = 2;
+    }
+
+    private static class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+
+        IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+
+    public ConnectionPool(String url, String username, String password) {
+        this(url, username, password, new Settings());
+    }
+
+    public ConnectionPool(String url, String username, String password, Settings settings) {
+        if (settings.maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxSize, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, settings.evictionIntervalMillis,
+                settings.evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks out a connection for a single operation. Closing the returned connection hands it
+     * back to the pool; any work that was not committed is rolled back at that point.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(settings.maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + settings.maxWaitMillis +
+                                       " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            return wrap(takeOrCreate());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection takeOrCreate() throws SQLException {
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (isUsable(candidate)) {
+                return candidate.connection;
+            }
+            closeQuietly(candidate.connection);
+        }
+
+        Connection connection = DriverManager.getConnection(url, username, password);
+        connection.setAutoCommit(false);  // Enable transaction support
+        return connection;
+    }
+
+    private boolean isUsable(IdleConnection candidate) {
+        try {
+            if (candidate.connection.isClosed()) {
+                return false;
+            }
+            long idleFor = System.currentTimeMillis() - candidate.idleSince;
+            return idleFor < settings.validateAfterIdleMillis ||
+                   candidate.connection.isValid(settings.validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        try {
+            if (closed || connection.isClosed()) {
+                closeQuietly(connection);
+                return;
+            }
+            // Never let one caller's uncommitted work leak into the next borrower
+            connection.rollback();
+            idle.offerFirst(new IdleConnection(connection, System.currentTimeMillis()));
+        } catch (SQLException e) {
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        int keep = settings.minIdle;
+        Iterator<IdleConnection> it = idle.iterator();
+        int seen = 0;
+        while (it.hasNext()) {
+            IdleConnection candidate = it.next();
+            seen++;
+            if (seen > keep && now - candidate.idleSince > settings.idleTimeoutMillis && idle.remove(candidate)) {
+                closeQuietly(candidate.connection);
+            }
+        }
+    }
+
+    private Connection wrap(Connection target) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!returned) {
+                            returned = true;
+                            release(target);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || target.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + target;
+                    default:
+                        if (returned) {
+                            throw new SQLException("Connection has already been returned to the pool");
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, handler);
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return settings.maxSize - permits.availablePermits();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Connection is being discarded anyway
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            closeQuietly(candidate.connection);
+        }
+    }
+}
@@ -2,243 +2,1376 @@
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class DatabaseHelper implements AutoCloseable {
-    private final Connection connection;
+public class DatabaseHelper implements FolderSource, UserDirectory, AutoCloseable {
+    private final ConnectionPool pool;
+    private final List<MailboxListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile int compressionThreshold = MessageBody.DEFAULT_THRESHOLD;
 
     public static class Email {
         public int id;
         public String fromUser;
         public String toUser;
         public String subject;
-        public String content;
         public LocalDateTime sentDate;
         public String status;
         public boolean isRead;
+        public int parentId;  // 0 when the message is not a reply or forward
+        public int threadId;
+        private String content;    // null until a stored body is decoded
+        private MessageBody body;  // null for an email built from plain text
 
         public Email(int id, String fromUser, String toUser, String subject,
                     String content, LocalDateTime sentDate, String status, boolean isRead) {
+            this(id, fromUser, toUser, subject, content, sentDate, status, isRead, 0, 0);
+        }
+
+        public Email(int id, String fromUser, String toUser, String subject, String content,
+                    LocalDateTime sentDate, String status, boolean isRead, int parentId, int threadId) {
+            this(id, fromUser, toUser, subject, (MessageBody) null, sentDate, status, isRead, parentId, threadId);
+            this.content = content;
+        }
+
+        public Email(int id, String fromUser, String toUser, String subject, MessageBody body,
+                    LocalDateTime sentDate, String status, boolean isRead, int parentId, int threadId) {
             this.id = id;
             this.fromUser = fromUser;
             this.toUser = toUser;
             this.subject = subject;
+            this.body = body;
+            this.sentDate = sentDate;
+            this.status = status;
+            this.isRead = isRead;
+            this.parentId = parentId;
+            this.threadId = threadId;
+        }
+
+        // Inflates a compressed body on first use
+        public String getContent() {
+            if (content == null && body != null) {
+                content = body.text();
+            }
+            return content;
+        }
+
+        public void setContent(String content) {
             this.content = content;
+            this.body = null;
+        }
+    }
+
+    // Everything a folder listing shows; the body is fetched separately with getEmailContent
+    public static class EmailHeader {
+        public final int id;
+        public final String fromUser;
+        public final String toUser;
+        public final String subject;
+        public final LocalDateTime sentDate;
+        public final String status;
+        public final boolean isRead;
+
+        public EmailHeader(int id, String fromUser, String toUser, String subject,
+                          LocalDateTime sentDate, String status, boolean isRead) {
+            this.id = id;
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            this.subject = subject;
             this.sentDate = sentDate;
             this.status = status;
             this.isRead = isRead;
         }
+
+        public EmailHeader withRead(boolean read) {
+            return new EmailHeader(id, fromUser, toUser, subject, sentDate, status, read);
+        }
+    }
+
+    public enum Folder {
+        INBOX("to_user = ? AND status = 'SENT'"),
+        SENT("from_user = ? AND status = 'SENT'"),
+        DRAFTS("from_user = ? AND status = 'DRAFT'");
+
+        final String predicate;
+
+        Folder(String predicate) {
+            this.predicate = predicate;
+        }
+    }
+
+    /**
+     * Listing orders. Each one ends in email_id so that the keyset position is unique; within
+     * one sender or subject, newer (higher id) messages come first.
+     */
+    public enum SortKey {
+        // The plain sent_date bound is implied by the row comparison but, unlike it, prunes partitions
+        DATE(null, "sent_date DESC, email_id DESC", "sent_date <= ? AND (sent_date, email_id) < (?, ?)"),
+        SENDER("from_user", "from_user, email_id DESC", "(from_user > ? OR (from_user = ? AND email_id < ?))"),
+        SUBJECT("subject", "subject, email_id DESC", "(subject > ? OR (subject = ? AND email_id < ?))");
+
+        final String column;  // null when the cursor's sent_date is the sort value
+        final String orderBy;
+        final String after;
+
+        SortKey(String column, String orderBy, String after) {
+            this.column = column;
+            this.orderBy = orderBy;
+            this.after = after;
+        }
+
+        int bindAfter(PreparedStatement stmt, int index, PageCursor cursor) throws SQLException {
+            if (column == null) {
+                stmt.setTimestamp(index++, Timestamp.valueOf(cursor.sentDate));
+                stmt.setTimestamp(index++, Timestamp.valueOf(cursor.sentDate));
+            } else {
+                stmt.setString(index++, cursor.sortValue);
+                stmt.setString(index++, cursor.sortValue);
+            }
+            stmt.setInt(index++, cursor.emailId);
+            return index;
+        }
+
+        PageCursor cursorAt(ResultSet rs) throws SQLException {
+            return new PageCursor(column == null ? null : rs.getString(column),
+                                  rs.getTimestamp("sent_date").toLocalDateTime(), rs.getInt("email_id"));
+        }
+    }
+
+    // Position just after the last row of a page, in the page's SortKey order
+    public static class PageCursor {
+        public final String sortValue;  // sender or subject of that row; null for SortKey.DATE
+        public final LocalDateTime sentDate;
+        public final int emailId;
+
+        public PageCursor(LocalDateTime sentDate, int emailId) {
+            this(null, sentDate, emailId);
+        }
+
+        public PageCursor(String sortValue, LocalDateTime sentDate, int emailId) {
+            this.sortValue = sortValue;
+            this.sentDate = sentDate;
+            this.emailId = emailId;
+        }
+    }
+
+    public static class Page<T> {
+        public final List<T> items;
+        public final PageCursor nextCursor;  // null on the last page
+
+        public Page(List<T> items, PageCursor nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+
+        public boolean hasMore() {
+            return nextCursor != null;
+        }
+    }
+
+    public static class BatchSendResult {
+        public final Map<String, Integer> emailIds;  // recipient -> generated email id
+        public final Map<String, String> rejected;   // recipient -> reason it was skipped
+
+        public BatchSendResult(Map<String, Integer> emailIds, Map<String, String> rejected) {
+            this.emailIds = emailIds;
+            this.rejected = rejected;
+        }
+    }
+
+    // Optional search restrictions; null fields do not filter
+    public static class SearchFilter {
+        public Folder folder;             // null searches every folder the user can see
+        public String fromUser;
+        public LocalDateTime sentAfter;   // inclusive
+        public LocalDateTime sentBefore;  // exclusive
+    }
+
+    public static class SearchHit {
+        public final EmailHeader header;
+        public final float rank;
+
+        public SearchHit(EmailHeader header, float rank) {
+            this.header = header;
+            this.rank = rank;
+        }
+    }
+
+    // Position after the last hit of a page; hits are ordered by (rank, email_id) descending
+    public static class SearchCursor {
+        public final float rank;
+        public final int emailId;
+
+        public SearchCursor(float rank, int emailId) {
+            this.rank = rank;
+            this.emailId = emailId;
+        }
+    }
+
+    public static class SearchPage {
+        public final List<SearchHit> hits;
+        public final SearchCursor nextCursor;  // null on the last page
+
+        public SearchPage(List<SearchHit> hits, SearchCursor nextCursor) {
+            this.hits = hits;
+            this.nextCursor = nextCursor;
+        }
+
+        public boolean hasMore() {
+            return nextCursor != null;
+        }
+    }
+
+    // One row of the threaded folder view: the thread's newest message in the folder
+    public static class ThreadSummary {
+        public final int threadId;
+        public final EmailHeader latest;
+        public final int messageCount;
+        public final int unreadCount;
+
+        public ThreadSummary(int threadId, EmailHeader latest, int messageCount, int unreadCount) {
+            this.threadId = threadId;
+            this.latest = latest;
+            this.messageCount = messageCount;
+            this.unreadCount = unreadCount;
+        }
+    }
+
+    // How much body storage sharing saves; see email_body_savings() in schema.sql
+    public static class BodyStorageReport {
+        public final long messages;
+        public final long distinctBodies;
+        public final long logicalBytes;   // what one uncompressed copy of the body per message would take
+        public final long distinctBytes;  // uncompressed size of the shared bodies
+        public final long storedBytes;
+
+        public BodyStorageReport(long messages, long distinctBodies, long logicalBytes, long distinctBytes,
+                                 long storedBytes) {
+            this.messages = messages;
+            this.distinctBodies = distinctBodies;
+            this.logicalBytes = logicalBytes;
+            this.distinctBytes = distinctBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        public long dedupSavedBytes() {
+            return logicalBytes - distinctBytes;
+        }
+
+        public long compressionSavedBytes() {
+            return distinctBytes - storedBytes;
+        }
+
+        public long savedBytes() {
+            return logicalBytes - storedBytes;
+        }
+    }
+
+    public static class FolderSummary {
+        public final int inboxTotal;
+        public final int inboxUnread;
+        public final int sentTotal;
+        public final int draftTotal;
+        // Each changes whenever its folder does, whichever client made the change
+        public final long inboxRevision;
+        public final long sentRevision;
+        public final long draftRevision;
+
+        public FolderSummary(int inboxTotal, int inboxUnread, int sentTotal, int draftTotal) {
+            this(inboxTotal, inboxUnread, sentTotal, draftTotal, 0, 0, 0);
+        }
+
+        public FolderSummary(int inboxTotal, int inboxUnread, int sentTotal, int draftTotal,
+                            long inboxRevision, long sentRevision, long draftRevision) {
+            this.inboxTotal = inboxTotal;
+            this.inboxUnread = inboxUnread;
+            this.sentTotal = sentTotal;
+            this.draftTotal = draftTotal;
+            this.inboxRevision = inboxRevision;
+            this.sentRevision = sentRevision;
+            this.draftRevision = draftRevision;
+        }
+
+        public int total(Folder folder) {
+            switch (folder) {
+                case INBOX: return inboxTotal;
+                case SENT: return sentTotal;
+                default: return draftTotal;
+            }
+        }
+
+        public long revision(Folder folder) {
+            switch (folder) {
+                case INBOX: return inboxRevision;
+                case SENT: return sentRevision;
+                default: return draftRevision;
+            }
+        }
     }
 
     public DatabaseHelper(String url, String username, String password) throws SQLException {
-        connection = DriverManager.getConnection(url, username, password);
-        connection.setAutoCommit(false);  // Enable transaction support
+        this(new ConnectionPool(url, username, password));
+        // Open the first connection eagerly so bad credentials still fail here
+        try {
+            pool.getConnection().close();
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
     }
 
-    // Email operations
-    public List<Email> getInboxEmails(String username) throws SQLException {
+    // Every operation checks out its own connection, so one caller's rollback never touches another's work
+    public DatabaseHelper(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // Bodies of at least this many UTF-8 bytes are stored deflated when that makes them smaller
+    public void setCompressionThreshold(int bytes) {
+        this.compressionThreshold = bytes;
+    }
+
+    public void addMailboxListener(MailboxListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeMailboxListener(MailboxListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Runs after the commit, so a failing listener cannot undo or fail the change itself
+    private void notifyListeners(Consumer<MailboxListener> event) {
+        for (MailboxListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                System.err.println("Mailbox listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final String HEADER_COLUMNS =
+        "email_id, from_user, to_user, subject, sent_date, status, is_read";
+    // Named rather than *, so the search_vector column stays on the server
+    private static final String EMAIL_COLUMNS = HEADER_COLUMNS + ", codec, body, body_length, parent_id, thread_id";
+    // Bodies live in email_bodies, shared between identical messages; this view joins them back
+    private static final String EMAILS_WITH_BODIES = "email_messages";
+
+    private interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private static EmailHeader mapHeader(ResultSet rs) throws SQLException {
+        return new EmailHeader(
+            rs.getInt("email_id"),
+            rs.getString("from_user"),
+            rs.getString("to_user"),
+            rs.getString("subject"),
+            rs.getTimestamp("sent_date").toLocalDateTime(),
+            rs.getString("status"),
+            rs.getBoolean("is_read")
+        );
+    }
+
+    private static Email mapEmail(ResultSet rs) throws SQLException {
+        return new Email(
+            rs.getInt("email_id"),
+            rs.getString("from_user"),
+            rs.getString("to_user"),
+            rs.getString("subject"),
+            storedBody(rs),
+            rs.getTimestamp("sent_date").toLocalDateTime(),
+            rs.getString("status"),
+            rs.getBoolean("is_read"),
+            rs.getInt("parent_id"),
+            rs.getInt("thread_id")
+        );
+    }
+
+    private static MessageBody storedBody(ResultSet rs) throws SQLException {
+        return MessageBody.stored(MessageBody.Codec.valueOf(rs.getString("codec")), rs.getBytes("body"),
+                                  rs.getInt("body_length"));
+    }
+
+    // Stores the body once (see intern_email_body in schema.sql) and evaluates to its hash
+    private static final String INTERN_BODY = "intern_email_body(?, ?, ?, ?)";
+
+    // Compresses once, here on the way in; readers inflate only what they display
+    private int bindBody(PreparedStatement stmt, int index, String content) throws SQLException {
+        MessageBody body = MessageBody.encode(content, compressionThreshold);
+        stmt.setString(index++, body.getCodec().name());
+        stmt.setBytes(index++, body.getStoredBytes());
+        stmt.setInt(index++, body.getLength());
+        // Plain bodies are hashed and indexed from the stored bytes; compressed ones need the text
+        stmt.setString(index++, body.getCodec() == MessageBody.Codec.PLAIN ? null : content);
+        return index;
+    }
+
+    private List<Email> queryEmails(String query, String username) throws SQLException {
         List<Email> emails = new ArrayList<>();
-        String query = "SELECT * FROM emails WHERE to_user = ? ORDER BY sent_date DESC";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                emails.add(new Email(
-                    rs.getInt("email_id"),
-                    rs.getString("from_user"),
-                    rs.getString("to_user"),
-                    rs.getString("subject"),
-                    rs.getString("content"),
-                    rs.getTimestamp("sent_date").toLocalDateTime(),
-                    rs.getString("status"),
-                    rs.getBoolean("is_read")
-                ));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    emails.add(mapEmail(rs));
+                }
             }
         }
 
         return emails;
     }
 
+    // Email operations
+    public List<Email> getInboxEmails(String username) throws SQLException {
+        return queryEmails("SELECT " + EMAIL_COLUMNS + " FROM email_messages WHERE " + Folder.INBOX.predicate + " ORDER BY sent_date DESC", username);
+    }
+
     public List<Email> getSentEmails(String username) throws SQLException {
-        List<Email> emails = new ArrayList<>();
-        String query = "SELECT * FROM emails WHERE from_user = ? AND status = 'SENT' ORDER BY sent_date DESC";
+        return queryEmails("SELECT " + EMAIL_COLUMNS + " FROM email_messages WHERE " + Folder.SENT.predicate + " ORDER BY sent_date DESC", username);
+    }
+
+    public List<Email> getDraftEmails(String username) throws SQLException {
+        return queryEmails("SELECT " + EMAIL_COLUMNS + " FROM email_messages WHERE " + Folder.DRAFTS.predicate + " ORDER BY sent_date DESC", username);
+    }
+
+    public Page<Email> getInboxPage(String username, PageCursor after, int pageSize) throws SQLException {
+        return getEmailPage(Folder.INBOX, username, after, pageSize);
+    }
+
+    public Page<Email> getSentPage(String username, PageCursor after, int pageSize) throws SQLException {
+        return getEmailPage(Folder.SENT, username, after, pageSize);
+    }
+
+    public Page<Email> getDraftPage(String username, PageCursor after, int pageSize) throws SQLException {
+        return getEmailPage(Folder.DRAFTS, username, after, pageSize);
+    }
+
+    /**
+     * Keyset pagination: seeks straight to the cursor through the folder's composite index,
+     * so every page costs the same no matter how deep into the folder it is.
+     * Pass a null cursor for the first page.
+     */
+    public Page<Email> getEmailPage(Folder folder, String username, PageCursor after,
+                                   int pageSize) throws SQLException {
+        return fetchPage(EMAIL_COLUMNS, EMAILS_WITH_BODIES, DatabaseHelper::mapEmail, folder, SortKey.DATE,
+                         username, after, pageSize);
+    }
+
+    // Same as getEmailPage but leaves the content column on the server
+    public Page<EmailHeader> getHeaderPage(Folder folder, String username, PageCursor after,
+                                          int pageSize) throws SQLException {
+        return getHeaderPage(folder, SortKey.DATE, username, after, pageSize);
+    }
+
+    // Sorted on the server; the cursor must come from a page of the same sort
+    @Override
+    public Page<EmailHeader> getHeaderPage(Folder folder, SortKey sort, String username, PageCursor after,
+                                          int pageSize) throws SQLException {
+        return fetchPage(HEADER_COLUMNS, "emails", DatabaseHelper::mapHeader, folder, sort, username, after, pageSize);
+    }
+
+    private <T> Page<T> fetchPage(String columns, String table, RowMapper<T> mapper, Folder folder, SortKey sort,
+                                  String username, PageCursor after, int pageSize) throws SQLException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        String query = "SELECT " + columns + " FROM " + table + " WHERE " + folder.predicate +
+                      (after != null ? " AND " + sort.after : "") +
+                      " ORDER BY " + sort.orderBy + " LIMIT ?";
+        List<T> items = new ArrayList<>(pageSize);
+        PageCursor next = null;
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            int i = 1;
+            stmt.setString(i++, username);
+            if (after != null) {
+                i = sort.bindAfter(stmt, i, after);
+            }
+            // One extra row tells us whether another page exists without a COUNT(*)
+            stmt.setInt(i, pageSize + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                PageCursor last = null;
+                while (rs.next()) {
+                    if (items.size() == pageSize) {
+                        next = last;
+                        break;
+                    }
+                    items.add(mapper.map(rs));
+                    if (items.size() == pageSize) {
+                        last = sort.cursorAt(rs);
+                    }
+                }
+            }
+        }
+
+        return new Page<>(items, next);
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+    /**
+     * Cursor positioned after the first offset rows of a folder, for jumping into the middle
+     * of a listing without paging through everything before it. Only the sort key is read, so
+     * the skipped rows are walked on the folder's composite index. Returns null when offset
+     * is 0 or the folder has no more than offset rows.
+     */
+    public PageCursor getPageCursor(Folder folder, String username, int offset) throws SQLException {
+        return getPageCursor(folder, SortKey.DATE, username, offset);
+    }
+
+    @Override
+    public PageCursor getPageCursor(Folder folder, SortKey sort, String username, int offset) throws SQLException {
+        if (offset <= 0) {
+            return null;
+        }
+        String query = "SELECT " + (sort.column != null ? sort.column + ", " : "") + "sent_date, email_id " +
+                      "FROM emails WHERE " + folder.predicate +
+                      " ORDER BY " + sort.orderBy + " OFFSET ? LIMIT 1";
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
+            stmt.setInt(2, offset - 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? sort.cursorAt(rs) : null;
+            }
+        }
+    }
+
+    // Every message the user can see in some folder
+    private static final String ALL_FOLDERS_PREDICATE =
+        "((to_user = ? AND status = 'SENT') OR (from_user = ? AND status IN ('SENT', 'DRAFT')))";
+
+    /**
+     * Full-text search over subject and body, best matches first. The query uses web search
+     * syntax ("quoted phrases", OR, -excluded) and is matched through the GIN index on
+     * search_vector; subject matches rank above body matches. Pass a null cursor for the
+     * first page and a null filter to search everything.
+     */
+    public SearchPage searchEmails(String username, String query, SearchFilter filter, SearchCursor after,
+                                   int pageSize) throws SQLException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        SearchFilter f = filter != null ? filter : new SearchFilter();
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM (SELECT " + HEADER_COLUMNS +
+            ", ts_rank_cd(search_vector, q) AS rank " +
+            "FROM emails, websearch_to_tsquery('english', ?) q WHERE search_vector @@ q AND ");
+        sql.append(f.folder != null ? f.folder.predicate : ALL_FOLDERS_PREDICATE);
+        if (f.fromUser != null) {
+            sql.append(" AND from_user = ?");
+        }
+        if (f.sentAfter != null) {
+            sql.append(" AND sent_date >= ?");
+        }
+        if (f.sentBefore != null) {
+            sql.append(" AND sent_date < ?");
+        }
+        sql.append(") hits");
+        if (after != null) {
+            sql.append(" WHERE (rank, email_id) < (?, ?)");
+        }
+        sql.append(" ORDER BY rank DESC, email_id DESC LIMIT ?");
+
+        List<SearchHit> hits = new ArrayList<>(pageSize);
+        SearchCursor next = null;
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int i = 1;
+            stmt.setString(i++, query);
+            stmt.setString(i++, username);
+            if (f.folder == null) {
+                stmt.setString(i++, username);
+            }
+            if (f.fromUser != null) {
+                stmt.setString(i++, f.fromUser);
+            }
+            if (f.sentAfter != null) {
+                stmt.setTimestamp(i++, Timestamp.valueOf(f.sentAfter));
+            }
+            if (f.sentBefore != null) {
+                stmt.setTimestamp(i++, Timestamp.valueOf(f.sentBefore));
+            }
+            if (after != null) {
+                // rank is a real on both sides, so the cursor compares exactly
+                stmt.setFloat(i++, after.rank);
+                stmt.setInt(i++, after.emailId);
+            }
+            stmt.setInt(i, pageSize + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (hits.size() == pageSize) {
+                        SearchHit last = hits.get(pageSize - 1);
+                        next = new SearchCursor(last.rank, last.header.id);
+                        break;
+                    }
+                    hits.add(new SearchHit(mapHeader(rs), rs.getFloat("rank")));
+                }
+            }
+        }
+
+        return new SearchPage(hits, next);
+    }
+
+    private static final String MAILBOX_QUERY =
+        "SELECT " + EMAIL_COLUMNS + " FROM " + EMAILS_WITH_BODIES + " WHERE (from_user = ? OR to_user = ?) AND email_id > ? ORDER BY email_id";
+
+    /**
+     * Hands every message the user sent or received to the consumer, in email_id order.
+     * Rows are pulled through a server-side cursor fetchSize at a time, so memory use does
+     * not depend on the size of the mailbox.
+     */
+    public void forEachEmail(String username, int fetchSize, Consumer<Email> consumer) throws SQLException {
+        forEachEmail(username, 0, fetchSize, consumer);
+    }
 
+    // Only messages with an id above afterId, i.e. those added since a message was seen
+    public void forEachEmail(String username, int afterId, int fetchSize, Consumer<Email> consumer) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = openMailboxCursor(connection, username, afterId, fetchSize);
+             ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
-                emails.add(new Email(
-                    rs.getInt("email_id"),
-                    rs.getString("from_user"),
-                    rs.getString("to_user"),
-                    rs.getString("subject"),
-                    rs.getString("content"),
-                    rs.getTimestamp("sent_date").toLocalDateTime(),
-                    rs.getString("status"),
-                    rs.getBoolean("is_read")
-                ));
+                consumer.accept(mapEmail(rs));
             }
         }
+    }
 
-        return emails;
+    /**
+     * Stream form of forEachEmail. The stream holds a pooled connection until it is closed,
+     * so always use it in a try-with-resources block. A database error while the stream is
+     * being consumed surfaces as an IllegalStateException wrapping the SQLException.
+     */
+    public Stream<Email> streamEmails(String username, int fetchSize) throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement stmt;
+        ResultSet rs;
+        try {
+            stmt = openMailboxCursor(connection, username, 0, fetchSize);
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        try {
+            rs = stmt.executeQuery();
+        } catch (SQLException e) {
+            stmt.close();
+            connection.close();
+            throw e;
+        }
+
+        Spliterator<Email> rows = new Spliterators.AbstractSpliterator<Email>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Email> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(mapEmail(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Failed to read next email", e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                // Closing the connection hands it back to the pool and ends the cursor's transaction
+                rs.close();
+                stmt.close();
+                connection.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to close email stream", e);
+            }
+        });
     }
 
-    public List<Email> getDraftEmails(String username) throws SQLException {
-        List<Email> emails = new ArrayList<>();
-        String query = "SELECT * FROM emails WHERE from_user = ? AND status = 'DRAFT' ORDER BY sent_date DESC";
+    private static PreparedStatement openMailboxCursor(Connection connection, String username, int afterId,
+                                                       int fetchSize) throws SQLException {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+        // With auto-commit off and a forward-only statement the driver pages rows
+        // through a server-side cursor instead of buffering the whole result
+        PreparedStatement stmt = connection.prepareStatement(MAILBOX_QUERY,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(fetchSize);
+        stmt.setString(1, username);
+        stmt.setString(2, username);
+        stmt.setInt(3, afterId);
+        return stmt;
+    }
+
+    /**
+     * Loads the body of a single message, for when a listing row is actually opened.
+     * Returns null if the email does not exist or the user is neither sender nor recipient.
+     */
+    public String getEmailContent(int emailId, String username) throws SQLException {
+        return fetchContent(emailId, null, username);
+    }
+
+    // The header's sent_date confines the lookup to one partition
+    public String getEmailContent(EmailHeader header, String username) throws SQLException {
+        return fetchContent(header.id, header.sentDate, username);
+    }
+
+    /**
+     * The whole message behind a listing row, including the parent_id and thread_id a reply or
+     * forward needs to show what it quotes. Null if it no longer exists or is not the user's.
+     */
+    public Email getEmail(EmailHeader header, String username) throws SQLException {
+        String query = "SELECT " + EMAIL_COLUMNS + " FROM " + EMAILS_WITH_BODIES +
+                      " WHERE email_id = ? AND sent_date = ? AND (from_user = ? OR to_user = ?)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, header.id);
+            stmt.setTimestamp(2, Timestamp.valueOf(header.sentDate));
+            stmt.setString(3, username);
+            stmt.setString(4, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? mapEmail(rs) : null;
+            }
+        }
+    }
+
+    private String fetchContent(int emailId, LocalDateTime sentDate, String username) throws SQLException {
+        String query = "SELECT codec, body, body_length FROM " + EMAILS_WITH_BODIES +
+                      " WHERE email_id = ?" + (sentDate != null ? " AND sent_date = ?" : "") +
+                      " AND (from_user = ? OR to_user = ?)";
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            int i = 1;
+            stmt.setInt(i++, emailId);
+            if (sentDate != null) {
+                stmt.setTimestamp(i++, Timestamp.valueOf(sentDate));
+            }
+            stmt.setString(i++, username);
+            stmt.setString(i, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? storedBody(rs).text() : null;
+            }
+        }
+    }
+
+    /**
+     * Headers of the given messages the user can see, in the order of emailIds; messages
+     * deleted or not visible to the user are left out. Used to list MailboxIndex search
+     * results, which carry ids only, so every partition's email_id index is probed.
+     */
+    public List<EmailHeader> getHeaders(int[] emailIds, String username) throws SQLException {
+        List<EmailHeader> headers = new ArrayList<>(emailIds.length);
+        if (emailIds.length == 0) {
+            return headers;
+        }
+        String query = "SELECT " + HEADER_COLUMNS + " FROM emails WHERE " + idPredicate(null) + " AND " + ALL_FOLDERS_PREDICATE;
+        Map<Integer, EmailHeader> found = new HashMap<>();
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            int i = bindIds(connection, stmt, emailIds, null);
+            stmt.setString(i++, username);
+            stmt.setString(i, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    EmailHeader header = mapHeader(rs);
+                    found.put(header.id, header);
+                }
+            }
+        }
+        for (int emailId : emailIds) {
+            EmailHeader header = found.get(emailId);
+            if (header != null) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Every message of a thread the user can see, oldest first, in one query on the
+     * (thread_id, sent_date, email_id) index. Quoted originals from other threads (forwards)
+     * are fetched separately with getQuotedEmail.
+     */
+    public List<Email> getThread(int threadId, String username) throws SQLException {
+        String query = "SELECT " + EMAIL_COLUMNS + " FROM " + EMAILS_WITH_BODIES + " WHERE thread_id = ? AND " + ALL_FOLDERS_PREDICATE +
+                      " ORDER BY sent_date, email_id";
+        List<Email> thread = new ArrayList<>();
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, threadId);
+            stmt.setString(2, username);
+            stmt.setString(3, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    thread.add(mapEmail(rs));
+                }
+            }
+        }
+        return thread;
+    }
+
+    /**
+     * The original a reply or forward quotes. Visible to the original's own sender and
+     * recipient, and to anyone who received (or is drafting) a message that references it,
+     * which is how a forward's recipient reads the forwarded text. Returns null otherwise.
+     */
+    public Email getQuotedEmail(int emailId, String username) throws SQLException {
+        String query = "SELECT " + EMAIL_COLUMNS + " FROM " + EMAILS_WITH_BODIES + " p WHERE email_id = ? AND status = 'SENT' AND " +
+                      "(from_user = ? OR to_user = ? OR EXISTS (SELECT 1 FROM emails c WHERE c.parent_id = p.email_id " +
+                      "AND ((c.to_user = ? AND c.status = 'SENT') OR c.from_user = ?)))";
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, emailId);
+            for (int i = 2; i <= 5; i++) {
+                stmt.setString(i, username);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? mapEmail(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Threaded folder view: one row per thread, showing its newest message in the folder,
+     * newest thread first. Unlike getHeaderPage every page groups the whole folder, so this
+     * is meant for the folder sizes a person reads rather than for bulk export.
+     */
+    public Page<ThreadSummary> getThreadPage(Folder folder, String username, PageCursor after,
+                                            int pageSize) throws SQLException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        String query = "SELECT * FROM (SELECT " + HEADER_COLUMNS + ", thread_id, " +
+                      "COUNT(*) OVER thread AS message_count, " +
+                      "COUNT(*) FILTER (WHERE NOT is_read) OVER thread AS unread_count, " +
+                      "ROW_NUMBER() OVER (thread ORDER BY sent_date DESC, email_id DESC) AS position " +
+                      "FROM emails WHERE " + folder.predicate + " WINDOW thread AS (PARTITION BY thread_id)) threads " +
+                      "WHERE position = 1" + (after != null ? " AND " + SortKey.DATE.after : "") +
+                      " ORDER BY " + SortKey.DATE.orderBy + " LIMIT ?";
+        List<ThreadSummary> threads = new ArrayList<>(pageSize);
+        PageCursor next = null;
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            int i = 1;
+            stmt.setString(i++, username);
+            if (after != null) {
+                i = SortKey.DATE.bindAfter(stmt, i, after);
+            }
+            stmt.setInt(i, pageSize + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                PageCursor last = null;
+                while (rs.next()) {
+                    if (threads.size() == pageSize) {
+                        next = last;
+                        break;
+                    }
+                    threads.add(new ThreadSummary(rs.getInt("thread_id"), mapHeader(rs),
+                                                  rs.getInt("message_count"), rs.getInt("unread_count")));
+                    if (threads.size() == pageSize) {
+                        last = SortKey.DATE.cursorAt(rs);
+                    }
+                }
+            }
+        }
+
+        return new Page<>(threads, next);
+    }
+
+    // Row count of the threaded view of a folder
+    public int countThreads(Folder folder, String username) throws SQLException {
+        String query = "SELECT COUNT(DISTINCT thread_id) FROM emails WHERE " + folder.predicate;
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
 
-            while (rs.next()) {
-                emails.add(new Email(
-                    rs.getInt("email_id"),
-                    rs.getString("from_user"),
-                    rs.getString("to_user"),
-                    rs.getString("subject"),
-                    rs.getString("content"),
-                    rs.getTimestamp("sent_date").toLocalDateTime(),
-                    rs.getString("status"),
-                    rs.getBoolean("is_read")
-                ));
+    // Served from the trigger-maintained mailbox_counters row, so the cost does not grow with the mailbox
+    @Override
+    public FolderSummary getFolderSummary(String username) throws SQLException {
+        String query = "SELECT inbox_total, inbox_unread, sent_total, draft_total, " +
+                      "inbox_revision, sent_revision, draft_revision " +
+                      "FROM mailbox_counters WHERE username = ?";
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return new FolderSummary(0, 0, 0, 0);
+                }
+                return new FolderSummary(
+                    rs.getInt("inbox_total"),
+                    rs.getInt("inbox_unread"),
+                    rs.getInt("sent_total"),
+                    rs.getInt("draft_total"),
+                    rs.getLong("inbox_revision"),
+                    rs.getLong("sent_revision"),
+                    rs.getLong("draft_revision")
+                );
             }
         }
+    }
 
-        return emails;
+    public BodyStorageReport getBodyStorageReport() throws SQLException {
+        String query = "SELECT messages, distinct_bodies, logical_bytes, distinct_bytes, stored_bytes " +
+                      "FROM email_body_savings()";
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return new BodyStorageReport(
+                    rs.getLong("messages"),
+                    rs.getLong("distinct_bodies"),
+                    rs.getLong("logical_bytes"),
+                    rs.getLong("distinct_bytes"),
+                    rs.getLong("stored_bytes")
+                );
+            }
+        }
     }
 
-    public int sendEmail(String fromUser, String toUser, String subject, 
+    public int sendEmail(String fromUser, String toUser, String subject,
                         String content) throws SQLException {
-        String query = "INSERT INTO emails (from_user, to_user, subject, content, sent_date, status, is_read) " +
-                      "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, 'SENT', false)";
-
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, fromUser);
-            stmt.setString(2, toUser);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            stmt.executeUpdate();
-
-            ResultSet rs = stmt.getGeneratedKeys();
-            if (rs.next()) {
-                int emailId = rs.getInt(1);
+        return insertEmail(fromUser, toUser, subject, content, 0, false, "SENT");
+    }
+
+    /**
+     * Sends a reply (joinThread) or forward of parentId. The original is referenced, not
+     * copied: content holds only the new text. The sender must be able to see the parent.
+     */
+    public int sendEmail(String fromUser, String toUser, String subject, String content,
+                        int parentId, boolean joinThread) throws SQLException {
+        return insertEmail(fromUser, toUser, subject, content, parentId, joinThread, "SENT");
+    }
+
+    /**
+     * Sends one message to many recipients with a single INSERT ... SELECT and one commit.
+     * Recipients that are malformed or have no account are reported in the result instead of
+     * failing the whole send; duplicates receive the message once.
+     */
+    public BatchSendResult sendEmail(String fromUser, Collection<String> toUsers, String subject,
+                                    String content) throws SQLException {
+        Map<String, Integer> emailIds = new LinkedHashMap<>();
+        Map<String, String> rejected = new LinkedHashMap<>();
+        Set<String> candidates = new LinkedHashSet<>();
+
+        for (String toUser : toUsers) {
+            if (toUser == null || toUser.trim().isEmpty() || toUser.length() > 30) {
+                rejected.put(toUser, "Invalid recipient");
+            } else {
+                candidates.add(toUser);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new BatchSendResult(emailIds, rejected);
+        }
+
+        // Joining against users validates every recipient in the same round trip as the insert.
+        // The body is interned once in the CTE and shared by every recipient's row.
+        String query = "WITH body AS (SELECT " + INTERN_BODY + " AS body_hash) " +
+                      "INSERT INTO emails (from_user, to_user, subject, body_hash, sent_date, status, is_read) " +
+                      "SELECT ?, username, ?, body.body_hash, CURRENT_TIMESTAMP, 'SENT', false " +
+                      "FROM users, body WHERE username = ANY(?) " +
+                      "RETURNING email_id, to_user, sent_date, thread_id";
+        List<Email> sent = new ArrayList<>();
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                int i = bindBody(stmt, 1, content);
+                stmt.setString(i++, fromUser);
+                stmt.setString(i++, subject);
+                stmt.setArray(i, connection.createArrayOf("varchar", candidates.toArray()));
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        emailIds.put(rs.getString("to_user"), rs.getInt("email_id"));
+                        sent.add(new Email(rs.getInt("email_id"), fromUser, rs.getString("to_user"), subject,
+                                           content, rs.getTimestamp("sent_date").toLocalDateTime(), "SENT", false,
+                                           0, rs.getInt("thread_id")));
+                    }
+                }
                 connection.commit();
-                return emailId;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
-            throw new SQLException("Failed to get generated email ID");
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
+        for (Email email : sent) {
+            notifyListeners(listener -> listener.emailAdded(email));
+        }
+
+        for (String toUser : candidates) {
+            if (!emailIds.containsKey(toUser)) {
+                rejected.put(toUser, "No such user");
+            }
+        }
+        return new BatchSendResult(emailIds, rejected);
     }
 
-    public int saveDraft(String fromUser, String toUser, String subject, 
+    public int saveDraft(String fromUser, String toUser, String subject,
                         String content) throws SQLException {
-        String query = "INSERT INTO emails (from_user, to_user, subject, content, sent_date, status, is_read) " +
-                      "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, 'DRAFT', false)";
-
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, fromUser);
-            stmt.setString(2, toUser);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            stmt.executeUpdate();
-
-            ResultSet rs = stmt.getGeneratedKeys();
-            if (rs.next()) {
-                int emailId = rs.getInt(1);
+        return insertEmail(fromUser, toUser, subject, content, 0, false, "DRAFT");
+    }
+
+    public int saveDraft(String fromUser, String toUser, String subject, String content,
+                        int parentId, boolean joinThread) throws SQLException {
+        return insertEmail(fromUser, toUser, subject, content, parentId, joinThread, "DRAFT");
+    }
+
+    private int insertEmail(String fromUser, String toUser, String subject, String content,
+                            int parentId, boolean joinThread, String status) throws SQLException {
+        String columns = "INSERT INTO emails (from_user, to_user, subject, body_hash, parent_id, thread_id, " +
+                        "sent_date, status, is_read) ";
+        // Selecting the parent with the sender's visibility inserts nothing for a parent they cannot
+        // see, so nobody can attach to someone else's thread. A NULL thread_id starts a new one.
+        String query = parentId > 0
+            ? columns + "SELECT ?, ?, ?, " + INTERN_BODY + ", email_id, " + (joinThread ? "thread_id" : "NULL") +
+              ", CURRENT_TIMESTAMP, '" + status + "', false FROM emails " +
+              "WHERE email_id = ? AND status = 'SENT' AND (from_user = ? OR to_user = ?)"
+            : columns + "VALUES (?, ?, ?, " + INTERN_BODY + ", NULL, NULL, CURRENT_TIMESTAMP, '" + status + "', false)";
+        Email email;
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query, new String[] {"email_id", "sent_date", "thread_id"})) {
+                stmt.setString(1, fromUser);
+                stmt.setString(2, toUser);
+                stmt.setString(3, subject);
+                int i = bindBody(stmt, 4, content);
+                if (parentId > 0) {
+                    stmt.setInt(i++, parentId);
+                    stmt.setString(i++, fromUser);
+                    stmt.setString(i, fromUser);
+                }
+                stmt.executeUpdate();
+
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    if (!rs.next()) {
+                        throw new SQLException(parentId > 0 ? "Original email not found" : "Failed to get generated email ID");
+                    }
+                    email = new Email(rs.getInt("email_id"), fromUser, toUser, subject, content,
+                                      rs.getTimestamp("sent_date").toLocalDateTime(), status, false,
+                                      parentId, rs.getInt("thread_id"));
+                }
                 connection.commit();
-                return emailId;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
-            throw new SQLException("Failed to get generated email ID");
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
+        notifyListeners(listener -> listener.emailAdded(email));
+        return email.id;
     }
 
-    public void updateDraft(int emailId, String toUser, String subject, 
+    public void updateDraft(int emailId, String toUser, String subject,
                           String content) throws SQLException {
-        String query = "UPDATE emails SET to_user = ?, subject = ?, content = ?, " +
-                      "sent_date = CURRENT_TIMESTAMP WHERE email_id = ? AND status = 'DRAFT'";
+        String query = "UPDATE emails SET to_user = ?, subject = ?, body_hash = " + INTERN_BODY + ", " +
+                      "sent_date = CURRENT_TIMESTAMP WHERE email_id = ? AND status = 'DRAFT' " +
+                      "RETURNING from_user, sent_date, parent_id, thread_id";
+        Email draft;
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, toUser);
-            stmt.setString(2, subject);
-            stmt.setString(3, content);
-            stmt.setInt(4, emailId);
-            int updated = stmt.executeUpdate();
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setString(1, toUser);
+                stmt.setString(2, subject);
+                stmt.setInt(bindBody(stmt, 3, content), emailId);
 
-            if (updated > 0) {
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Draft email not found or already sent");
+                    }
+                    draft = new Email(emailId, rs.getString("from_user"), toUser, subject, content,
+                                      rs.getTimestamp("sent_date").toLocalDateTime(), "DRAFT", false,
+                                      rs.getInt("parent_id"), rs.getInt("thread_id"));
+                }
                 connection.commit();
-            } else {
-                throw new SQLException("Draft email not found or already sent");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
+        notifyListeners(listener -> listener.draftUpdated(draft));
     }
 
     public void deleteEmail(int emailId, String username) throws SQLException {
-        String query = "DELETE FROM emails WHERE email_id = ? AND (from_user = ? OR to_user = ?)";
+        if (deleteEmails(new int[] {emailId}, username) == 0) {
+            throw new SQLException("Email not found or permission denied");
+        }
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, emailId);
-            stmt.setString(2, username);
-            stmt.setString(3, username);
-            int deleted = stmt.executeUpdate();
+    public void markAsRead(int emailId, String username) throws SQLException {
+        setReadFlag(emailId, null, username, true);
+    }
+
+    public void markAsUnread(int emailId, String username) throws SQLException {
+        setReadFlag(emailId, null, username, false);
+    }
+
+    public void markAsRead(EmailHeader header, String username) throws SQLException {
+        setReadFlag(header.id, header.sentDate, username, true);
+    }
+
+    private void setReadFlag(int emailId, LocalDateTime sentDate, String username, boolean read) throws SQLException {
+        String query = "UPDATE emails SET is_read = ? WHERE email_id = ?" +
+                      (sentDate != null ? " AND sent_date = ?" : "") + " AND to_user = ?";
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                int i = 1;
+                stmt.setBoolean(i++, read);
+                stmt.setInt(i++, emailId);
+                if (sentDate != null) {
+                    stmt.setTimestamp(i++, Timestamp.valueOf(sentDate));
+                }
+                stmt.setString(i, username);
+                int updated = stmt.executeUpdate();
+
+                if (updated > 0) {
+                    connection.commit();
+                } else {
+                    throw new SQLException("Email not found or permission denied");
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        int[] ids = {emailId};
+        notifyListeners(listener -> listener.readStateChanged(ids, username, read));
+    }
+
+    // Bulk variants: one statement and one commit for the whole id set, returning how many rows changed.
+    // Ids the user has no access to are skipped rather than failing the batch.
+    public int markAsRead(int[] emailIds, String username) throws SQLException {
+        return setReadFlags(emailIds, null, username, true);
+    }
+
+    public int markAsUnread(int[] emailIds, String username) throws SQLException {
+        return setReadFlags(emailIds, null, username, false);
+    }
+
+    /*
+     * Header-based bulk variants. emails is partitioned by sent_date (see schema.sql), so
+     * matching the headers' dates as well as their ids lets the planner skip every partition
+     * that holds none of them; the id-only forms probe each partition's primary key.
+     */
+    public int markAsRead(List<EmailHeader> headers, String username) throws SQLException {
+        return setReadFlags(ids(headers), sentDates(headers), username, true);
+    }
 
-            if (deleted > 0) {
+    public int markAsUnread(List<EmailHeader> headers, String username) throws SQLException {
+        return setReadFlags(ids(headers), sentDates(headers), username, false);
+    }
+
+    public int deleteEmails(List<EmailHeader> headers, String username) throws SQLException {
+        return deleteEmails(ids(headers), sentDates(headers), username);
+    }
+
+    private int setReadFlags(int[] emailIds, LocalDateTime[] sentDates, String username,
+                             boolean read) throws SQLException {
+        int updated = updateByIds("UPDATE emails SET is_read = " + read + " WHERE " + idPredicate(sentDates) +
+                                  " AND to_user = ?", emailIds, sentDates, username, 1);
+        if (updated > 0) {
+            notifyListeners(listener -> listener.readStateChanged(emailIds, username, read));
+        }
+        return updated;
+    }
+
+    // RETURNING tells listeners exactly which rows went and whose folders they were in
+    public int deleteEmails(int[] emailIds, String username) throws SQLException {
+        return deleteEmails(emailIds, null, username);
+    }
+
+    private int deleteEmails(int[] emailIds, LocalDateTime[] sentDates, String username) throws SQLException {
+        if (emailIds.length == 0) {
+            return 0;
+        }
+        String query = "DELETE FROM emails WHERE " + idPredicate(sentDates) + " AND (from_user = ? OR to_user = ?) " +
+                      "RETURNING email_id, from_user, to_user";
+        List<Integer> deleted = new ArrayList<>();
+        Set<String> affectedUsers = new LinkedHashSet<>();
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                int i = bindIds(connection, stmt, emailIds, sentDates);
+                stmt.setString(i++, username);
+                stmt.setString(i, username);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        deleted.add(rs.getInt("email_id"));
+                        affectedUsers.add(rs.getString("from_user"));
+                        if (rs.getString("to_user") != null) {
+                            affectedUsers.add(rs.getString("to_user"));
+                        }
+                    }
+                }
                 connection.commit();
-            } else {
-                throw new SQLException("Email not found or permission denied");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
+
+        if (!deleted.isEmpty()) {
+            int[] ids = deleted.stream().mapToInt(Integer::intValue).toArray();
+            notifyListeners(listener -> listener.emailsDeleted(ids, affectedUsers));
+        }
+        return deleted.size();
     }
 
-    public void markAsRead(int emailId, String username) throws SQLException {
-        String query = "UPDATE emails SET is_read = true WHERE email_id = ? AND to_user = ?";
+    private static Integer[] boxed(int[] values) {
+        Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, emailId);
-            stmt.setString(2, username);
-            int updated = stmt.executeUpdate();
+    private static int[] ids(List<EmailHeader> headers) {
+        return headers.stream().mapToInt(header -> header.id).toArray();
+    }
+
+    private static LocalDateTime[] sentDates(List<EmailHeader> headers) {
+        return headers.stream().map(header -> header.sentDate).toArray(LocalDateTime[]::new);
+    }
+
+    private static String idPredicate(LocalDateTime[] sentDates) {
+        return sentDates != null ? "email_id = ANY(?) AND sent_date = ANY(?)" : "email_id = ANY(?)";
+    }
+
+    private static int bindIds(Connection connection, PreparedStatement stmt, int[] emailIds,
+                               LocalDateTime[] sentDates) throws SQLException {
+        stmt.setArray(1, connection.createArrayOf("integer", boxed(emailIds)));
+        if (sentDates == null) {
+            return 2;
+        }
+        Timestamp[] timestamps = new Timestamp[sentDates.length];
+        for (int i = 0; i < sentDates.length; i++) {
+            timestamps[i] = Timestamp.valueOf(sentDates[i]);
+        }
+        stmt.setArray(2, connection.createArrayOf("timestamp", timestamps));
+        return 3;
+    }
 
-            if (updated > 0) {
+    private int updateByIds(String query, int[] emailIds, LocalDateTime[] sentDates, String username,
+                            int usernameParams) throws SQLException {
+        if (emailIds.length == 0) {
+            return 0;
+        }
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                int first = bindIds(connection, stmt, emailIds, sentDates);
+                for (int i = 0; i < usernameParams; i++) {
+                    stmt.setString(first + i, username);
+                }
+                int updated = stmt.executeUpdate();
                 connection.commit();
-            } else {
-                throw new SQLException("Email not found or permission denied");
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
     }
 
-    public void markAsUnread(int emailId, String username) throws SQLException {
-        String query = "UPDATE emails SET is_read = false WHERE email_id = ? AND to_user = ?";
+    // User provisioning
+    public static class NewUser {
+        public final String username;
+        public final String passwordHash;
+        public final String role;
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, emailId);
-            stmt.setString(2, username);
-            int updated = stmt.executeUpdate();
+        public NewUser(String username, String passwordHash, String role) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.role = role;
+        }
+    }
 
-            if (updated > 0) {
+    /**
+     * Inserts a batch of accounts with one multi-row INSERT and one commit. Usernames that
+     * already exist are left untouched; the returned set holds the ones actually created.
+     */
+    public Set<String> insertUsers(List<NewUser> newUsers) throws SQLException {
+        Set<String> created = new LinkedHashSet<>();
+        if (newUsers.isEmpty()) {
+            return created;
+        }
+
+        String[] usernames = new String[newUsers.size()];
+        String[] hashes = new String[newUsers.size()];
+        String[] roles = new String[newUsers.size()];
+        for (int i = 0; i < usernames.length; i++) {
+            NewUser user = newUsers.get(i);
+            usernames[i] = user.username;
+            hashes[i] = user.passwordHash;
+            roles[i] = user.role;
+        }
+
+        String query = "INSERT INTO users (username, password_hash, role, created_at) " +
+                      "SELECT u.username, u.password_hash, u.role, CURRENT_TIMESTAMP " +
+                      "FROM unnest(?::varchar[], ?::varchar[], ?::varchar[]) AS u(username, password_hash, role) " +
+                      "ON CONFLICT (username) DO NOTHING " +
+                      "RETURNING username";
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setArray(1, connection.createArrayOf("varchar", usernames));
+                stmt.setArray(2, connection.createArrayOf("varchar", hashes));
+                stmt.setArray(3, connection.createArrayOf("varchar", roles));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        created.add(rs.getString("username"));
+                    }
+                }
                 connection.commit();
-            } else {
-                throw new SQLException("Email not found or permission denied");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return created;
+    }
+
+    @Override
+    public String getPasswordHash(String username) throws SQLException {
+        String query = "SELECT password_hash FROM users WHERE username = ?";
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("password_hash") : null;
             }
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
     }
 
@@ -248,25 +1381,29 @@ public class DatabaseHelper implements AutoCloseable {
                       "(SELECT user_id FROM users WHERE username = ?) " +
                       "AND token = ? AND is_active = true AND expires_at > CURRENT_TIMESTAMP";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, username);
             stmt.setString(2, sessionToken);
-            ResultSet rs = stmt.executeQuery();
-            rs.next();
-            return rs.getInt(1) > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1) > 0;
+            }
         }
     }
 
     public void invalidateSession(String sessionToken) throws SQLException {
         String query = "UPDATE sessions SET is_active = false WHERE token = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, sessionToken);
-            stmt.executeUpdate();
-            connection.commit();
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setString(1, sessionToken);
+                stmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         }
     }
 
@@ -274,22 +1411,141 @@ public class DatabaseHelper implements AutoCloseable {
         String query = "INSERT INTO sessions (user_id, token, created_at, expires_at, is_active) " +
                       "VALUES (?, ?, CURRENT_TIMESTAMP, ?, true)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, userId);
-            stmt.setString(2, token);
-            stmt.setTimestamp(3, Timestamp.valueOf(expiresAt));
-            stmt.executeUpdate();
-            connection.commit();
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setInt(1, userId);
+                stmt.setString(2, token);
+                stmt.setTimestamp(3, Timestamp.valueOf(expiresAt));
+                stmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         }
     }
 
-    @Override
-    public void close() throws SQLException {
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
+    // Same as createSession(int, ...) for callers that only know the username
+    public void createSession(String username, String token, LocalDateTime expiresAt) throws SQLException {
+        String query = "INSERT INTO sessions (user_id, token, created_at, expires_at, is_active) " +
+                      "SELECT user_id, ?, CURRENT_TIMESTAMP, ?, true FROM users WHERE username = ?";
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setString(1, token);
+                stmt.setTimestamp(2, Timestamp.valueOf(expiresAt));
+                stmt.setString(3, username);
+                if (stmt.executeUpdate() == 0) {
+                    throw new SQLException("User not found");
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    public void extendSession(String token, LocalDateTime expiresAt) throws SQLException {
+        String query = "UPDATE sessions SET expires_at = ? WHERE token = ? AND is_active = true";
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setTimestamp(1, Timestamp.valueOf(expiresAt));
+                stmt.setString(2, token);
+                stmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    public static class ActiveSession {
+        public final String token;
+        public final String username;
+        public final LocalDateTime expiresAt;
+
+        public ActiveSession(String token, String username, LocalDateTime expiresAt) {
+            this.token = token;
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Used to warm an in-process session cache at startup
+    public List<ActiveSession> getActiveSessions() throws SQLException {
+        String query = "SELECT s.token, u.username, s.expires_at FROM sessions s " +
+                      "JOIN users u ON u.user_id = s.user_id " +
+                      "WHERE s.is_active = true AND s.expires_at > CURRENT_TIMESTAMP";
+        List<ActiveSession> sessions = new ArrayList<>();
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                sessions.add(new ActiveSession(
+                    rs.getString("token"),
+                    rs.getString("username"),
+                    rs.getTimestamp("expires_at").toLocalDateTime()
+                ));
+            }
+        }
+        return sessions;
+    }
+
+    // Login throttling state; lockedUntil is null when this failure does not lock the account
+    public void recordLoginFailure(String username, LocalDateTime lockedUntil) throws SQLException {
+        String query = "UPDATE users SET failed_attempts = COALESCE(failed_attempts, 0) + 1, " +
+                      "locked_until = COALESCE(?, locked_until) WHERE username = ?";
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setTimestamp(1, lockedUntil == null ? null : Timestamp.valueOf(lockedUntil));
+                stmt.setString(2, username);
+                stmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         }
     }
+
+    public void recordLoginSuccess(String username) throws SQLException {
+        String query = "UPDATE users SET failed_attempts = 0, locked_until = NULL, " +
+                      "last_login = CURRENT_TIMESTAMP WHERE username = ?";
+
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setString(1, username);
+                stmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Accounts whose lock has not yet run out, so a restart does not lift them
+    public Map<String, LocalDateTime> getLockedAccounts() throws SQLException {
+        String query = "SELECT username, locked_until FROM users WHERE locked_until > CURRENT_TIMESTAMP";
+        Map<String, LocalDateTime> locked = new HashMap<>();
+
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                locked.put(rs.getString("username"), rs.getTimestamp("locked_until").toLocalDateTime());
+            }
+        }
+        return locked;
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
 }
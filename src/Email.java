@@ -11,6 +11,8 @@ public class Email {
     private LocalDateTime sentDate;
     private EmailStatus status;
     private boolean isRead;
+    private int parentId;  // message this one replies to or forwards; 0 for none
+    private int threadId;  // 0 until saved; the database starts a new thread at the message's own id
 
     public enum EmailStatus {
         SENT,
@@ -70,6 +72,12 @@ public class Email {
     public boolean isRead() { return isRead; }
     public void setRead(boolean read) { isRead = read; }
 
+    public int getParentId() { return parentId; }
+    public void setParentId(int parentId) { this.parentId = parentId; }
+
+    public int getThreadId() { return threadId; }
+    public void setThreadId(int threadId) { this.threadId = threadId; }
+
     // Utility methods
     public boolean isValid() {
         return fromUser != null && !fromUser.trim().isEmpty() &&
@@ -78,29 +86,39 @@ public class Email {
                content != null;
     }
 
+    /**
+     * The reply points at this message instead of copying its body, so every message in a
+     * thread stores only its own text and a long exchange grows linearly rather than
+     * re-storing the whole history each time. formatQuoted() renders the original on demand.
+     */
     public Email createReply() {
         Email reply = new Email();
         reply.setToUser(this.fromUser);
-        reply.setSubject("Re: " + this.subject);
-        reply.setContent("\n\n-------- Original Message --------\n" +
-                        "From: " + this.fromUser + "\n" +
-                        "Date: " + this.sentDate + "\n" +
-                        "Subject: " + this.subject + "\n\n" +
-                        this.content);
+        reply.setSubject(this.subject.startsWith("Re: ") ? this.subject : "Re: " + this.subject);
+        reply.setContent("");
+        reply.setParentId(this.id);
+        reply.setThreadId(this.threadId != 0 ? this.threadId : this.id);
         return reply;
     }
 
+    // A forward references the original too, but opens a new thread with a new audience
     public Email createForward() {
         Email forward = new Email();
         forward.setSubject("Fwd: " + this.subject);
-        forward.setContent("\n\n-------- Forwarded Message --------\n" +
-                          "From: " + this.fromUser + "\n" +
-                          "Date: " + this.sentDate + "\n" +
-                          "Subject: " + this.subject + "\n\n" +
-                          this.content);
+        forward.setContent("");
+        forward.setParentId(this.id);
         return forward;
     }
 
+    // The quoted block a reply or forward of this message displays below its own text
+    public String formatQuoted(boolean forwarded) {
+        return "\n\n-------- " + (forwarded ? "Forwarded" : "Original") + " Message --------\n" +
+               "From: " + this.fromUser + "\n" +
+               "Date: " + this.sentDate + "\n" +
+               "Subject: " + this.subject + "\n\n" +
+               this.content;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -108,6 +126,8 @@ public class Email {
         Email email = (Email) o;
         return id == email.id &&
                isRead == email.isRead &&
+               parentId == email.parentId &&
+               threadId == email.threadId &&
                Objects.equals(fromUser, email.fromUser) &&
                Objects.equals(toUser, email.toUser) &&
                Objects.equals(subject, email.subject) &&
@@ -118,7 +138,7 @@ public class Email {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, fromUser, toUser, subject, content, sentDate, status, isRead);
+        return Objects.hash(id, fromUser, toUser, subject, content, sentDate, status, isRead, parentId, threadId);
     }
 
     @Override
@@ -131,6 +151,8 @@ public class Email {
                ", sentDate=" + sentDate +
                ", status=" + status +
                ", isRead=" + isRead +
+               ", parentId=" + parentId +
+               ", threadId=" + threadId +
                '}';
     }
 }
@@ -1,27 +1,75 @@
 // EmailInterface.java
 import javax.swing.*;
 import java.awt.*;
-import javax.swing.table.DefaultTableModel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 public class EmailInterface extends JFrame {
+    private static final int SEARCH_LIMIT = 100;
+    private static final int SEARCH_DELAY_MILLIS = 200;  // typing pause before the query runs
+    private static final String SAMPLE_BODY = "This is a sample email content.\n" +
+        "In a real application, this would be the actual email content fetched from the database.";
+
     private JTable emailTable;
-    private DefaultTableModel tableModel;
+    private LazyEmailTableModel tableModel;
     private JTextArea emailContent;
     private String currentUser;
     private String sessionToken;
     private JLabel statusLabel;
+    private final DatabaseHelper db;  // null when running on sample data
+    private final ReadStateBuffer readStateBuffer;  // null to write read/unread flips straight through
+    private final FolderPageCache folderCache;  // null when running on sample data
+    // Message bodies load on this so the EDT never waits on a query; a new selection cancels it
+    private BodyLoader bodyLoader;
+    private final MailboxIndex searchIndex;  // null when running on sample data
+    private final Path searchIndexFile;
+    private boolean searchIndexReady;  // set on the EDT once the snapshot is loaded or rebuilt
+    private LazyEmailTableModel.HeaderSource inboxSource;
+    private JTextField searchField;
+    private Timer searchTimer;
+    // Row email id -> its thread while View > Group by Thread is on, otherwise null
+    private java.util.Map<Integer, DatabaseHelper.ThreadSummary> threadRows;
+    private JCheckBoxMenuItem threadItem;
 
     public EmailInterface(String username, String sessionToken) {
+        this(username, sessionToken, null);
+    }
+
+    public EmailInterface(String username, String sessionToken, DatabaseHelper db) {
+        this(username, sessionToken, db, null);
+    }
+
+    public EmailInterface(String username, String sessionToken, DatabaseHelper db,
+                          ReadStateBuffer readStateBuffer) {
         this.currentUser = username;
         this.sessionToken = sessionToken;
+        this.db = db;
+        this.readStateBuffer = readStateBuffer;
+        this.folderCache = db == null ? null : new FolderPageCache(db);
+        this.searchIndex = db == null ? null : new MailboxIndex(username);
+        this.searchIndexFile = Paths.get(System.getProperty("user.home"), ".cse360-mail", username + ".idx");
 
         setTitle("Email - " + username);
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
 
+        // Make buffered read-state toggles durable before the window goes away
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                flushReadState();
+                saveSearchIndex();
+                if (folderCache != null) {
+                    folderCache.close();
+                }
+            }
+        });
+
         // Create menu bar
         createMenuBar();
 
@@ -51,6 +99,7 @@ public class EmailInterface extends JFrame {
 
         // Load emails
         loadEmails();
+        openSearchIndex();
     }
 
     private void createMenuBar() {
@@ -88,6 +137,8 @@ public class EmailInterface extends JFrame {
         // View menu
         JMenu viewMenu = new JMenu("View");
         JMenuItem refreshItem = new JMenuItem("Refresh");
+        threadItem = new JCheckBoxMenuItem("Group by Thread");
+        threadItem.setEnabled(db != null);
         JMenu sortMenu = new JMenu("Sort By");
 
         JMenuItem sortDateItem = new JMenuItem("Date");
@@ -95,6 +146,7 @@ public class EmailInterface extends JFrame {
         JMenuItem sortSubjectItem = new JMenuItem("Subject");
 
         refreshItem.addActionListener(e -> refreshEmails());
+        threadItem.addActionListener(e -> setThreaded(threadItem.isSelected()));
         sortDateItem.addActionListener(e -> sortEmails("date"));
         sortSenderItem.addActionListener(e -> sortEmails("sender"));
         sortSubjectItem.addActionListener(e -> sortEmails("subject"));
@@ -104,6 +156,7 @@ public class EmailInterface extends JFrame {
         sortMenu.add(sortSubjectItem);
 
         viewMenu.add(refreshItem);
+        viewMenu.add(threadItem);
         viewMenu.add(sortMenu);
 
         menuBar.add(fileMenu);
@@ -123,6 +176,8 @@ public class EmailInterface extends JFrame {
         JButton forwardBtn = new JButton("Forward");
         JButton deleteBtn = new JButton("Delete");
         JButton refreshBtn = new JButton("Refresh");
+        searchField = new JTextField(15);
+        searchField.setMaximumSize(searchField.getPreferredSize());
 
         // Add icons (if available)
         // newEmailBtn.setIcon(new ImageIcon("path_to_icon"));
@@ -133,6 +188,7 @@ public class EmailInterface extends JFrame {
         forwardBtn.setToolTipText("Forward selected email");
         deleteBtn.setToolTipText("Delete selected email");
         refreshBtn.setToolTipText("Refresh email list");
+        searchField.setToolTipText("Search subjects and bodies; clear to show the inbox again");
 
         // Add buttons to toolbar
         toolbar.add(newEmailBtn);
@@ -141,6 +197,10 @@ public class EmailInterface extends JFrame {
         toolbar.add(deleteBtn);
         toolbar.addSeparator();
         toolbar.add(refreshBtn);
+        toolbar.addSeparator();
+        toolbar.add(new JLabel("Search: "));
+        toolbar.add(searchField);
+        searchField.setEnabled(db != null);
 
         // Add button listeners
         newEmailBtn.addActionListener(e -> showNewEmailDialog());
@@ -149,20 +209,42 @@ public class EmailInterface extends JFrame {
         deleteBtn.addActionListener(e -> deleteSelectedEmail());
         refreshBtn.addActionListener(e -> refreshEmails());
 
+        // Searches as the user types, once they pause
+        searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> runSearch());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+        searchField.addActionListener(e -> {
+            searchTimer.stop();
+            runSearch();
+        });
+
         add(toolbar, BorderLayout.NORTH);
     }
 
     private void createEmailList() {
-        String[] columns = {"From", "Subject", "Date", "Status"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        // Rows are fetched in blocks as they scroll into view, so large folders open immediately
+        inboxSource = db == null ? null
+            : LazyEmailTableModel.forFolder(folderCache, DatabaseHelper.Folder.INBOX, currentUser, readStateBuffer);
+        tableModel = new LazyEmailTableModel(inboxSource, currentUser);
+        tableModel.setErrorHandler(e -> updateStatus("Failed to load emails: " + e.getMessage()));
 
         emailTable = new JTable(tableModel);
-        emailTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        emailTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         // Add selection listener
         emailTable.getSelectionModel().addListSelectionListener(e -> {
@@ -188,17 +270,106 @@ public class EmailInterface extends JFrame {
     }
 
     private void loadEmails() {
-        // This would normally fetch emails from database
-        // For now, adding sample data
-        Object[][] sampleEmails = {
-            {"john@example.com", "Meeting Tomorrow", "2024-02-07 10:30", "Unread"},
-            {"kyle@example.com", "Project Update", "2024-02-07 09:15", "Read"},
-            {"team@company.com", "Weekly Newsletter", "2024-02-06 16:45", "Read"}
-        };
-
-        for (Object[] email : sampleEmails) {
-            tableModel.addRow(email);
+        tableModel.reload();
+        if (db == null) {
+            // No database configured, so show sample data
+            tableModel.addLocalRow(sampleEmail("john@example.com", "Meeting Tomorrow", LocalDateTime.of(2024, 2, 7, 10, 30), false));
+            tableModel.addLocalRow(sampleEmail("kyle@example.com", "Project Update", LocalDateTime.of(2024, 2, 7, 9, 15), true));
+            tableModel.addLocalRow(sampleEmail("team@company.com", "Weekly Newsletter", LocalDateTime.of(2024, 2, 6, 16, 45), true));
+        }
+    }
+
+    /**
+     * Search runs against a MailboxIndex on this machine rather than the database. Its
+     * snapshot is mapped, topped up with mail that arrived since it was saved, and kept
+     * current by mailbox events; without one (first run, or a corrupt file) it is rebuilt.
+     * Both happen on a worker, and the search field reports when the index is not ready yet.
+     */
+    private void openSearchIndex() {
+        if (searchIndex == null) {
+            return;
+        }
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException, SQLException {
+                boolean loaded = searchIndex.load(searchIndexFile);
+                db.addMailboxListener(searchIndex);
+                if (loaded) {
+                    searchIndex.catchUp(db);
+                } else {
+                    searchIndex.rebuild(db);
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    searchIndexReady = true;
+                    if (!searchField.getText().trim().isEmpty()) {
+                        runSearch();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    updateStatus("Search is unavailable: " + e.getCause().getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void runSearch() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            tableModel.setSource(listingSource());
+            return;
+        }
+        if (!searchIndexReady) {
+            updateStatus("Search index is still loading...");
+            return;
         }
+        // Results are single messages, so the threaded view is switched off
+        threadRows = null;
+        threadItem.setSelected(false);
+        // Newest matches first; the index is in memory or mapped, so this is cheap enough for the EDT
+        int[] ids = searchIndex.search(query, SEARCH_LIMIT);
+        tableModel.setSource(LazyEmailTableModel.forIds(db, ids, currentUser, readStateBuffer));
+        updateStatus(ids.length == 0 ? "No emails match \"" + query + "\""
+                     : ids.length >= SEARCH_LIMIT ? "Showing the newest " + SEARCH_LIMIT + " matches"
+                     : ids.length + (ids.length == 1 ? " match" : " matches"));
+    }
+
+    private LazyEmailTableModel.HeaderSource listingSource() {
+        return threadRows == null ? inboxSource
+            : LazyEmailTableModel.forThreads(db, DatabaseHelper.Folder.INBOX, currentUser, threadRows);
+    }
+
+    // One row per conversation; selecting a row shows every message of its thread
+    private void setThreaded(boolean threaded) {
+        threadRows = threaded ? new java.util.concurrent.ConcurrentHashMap<>() : null;
+        searchField.setText("");
+        searchTimer.stop();
+        tableModel.setSource(listingSource());
+        updateStatus(threaded ? "Grouped by thread" : "Showing single messages");
+    }
+
+    // Written on exit so the next start maps it instead of rebuilding
+    private void saveSearchIndex() {
+        if (searchIndex == null || !searchIndexReady) {
+            return;
+        }
+        db.removeMailboxListener(searchIndex);
+        try {
+            Files.createDirectories(searchIndexFile.getParent());
+            searchIndex.save(searchIndexFile);
+        } catch (IOException e) {
+            System.err.println("Failed to save search index: " + e.getMessage());
+        }
+    }
+
+    private DatabaseHelper.EmailHeader sampleEmail(String from, String subject, LocalDateTime date, boolean read) {
+        return new DatabaseHelper.EmailHeader(0, from, currentUser, subject, date, "SENT", read);
     }
 
     private void showNewEmailDialog() {
@@ -250,12 +421,12 @@ public class EmailInterface extends JFrame {
 
         // Add button listeners
         sendButton.addActionListener(e -> {
-            sendEmail(toField.getText(), subjectField.getText(), content.getText());
+            sendEmail(toField.getText(), subjectField.getText(), content.getText(), 0, false);
             newEmailDialog.dispose();
         });
 
         saveButton.addActionListener(e -> {
-            saveDraft(toField.getText(), subjectField.getText(), content.getText());
+            saveDraft(toField.getText(), subjectField.getText(), content.getText(), 0, false);
             newEmailDialog.dispose();
         });
 
@@ -269,34 +440,55 @@ public class EmailInterface extends JFrame {
         newEmailDialog.setVisible(true);
     }
 
+    // Replies and forwards reference the original by id rather than copying its text; see Email.createReply
     private void replyToEmail() {
-        int selectedRow = emailTable.getSelectedRow();
-        if (selectedRow >= 0) {
-            String originalFrom = (String) tableModel.getValueAt(selectedRow, 0);
-            String originalSubject = (String) tableModel.getValueAt(selectedRow, 1);
-
-            showEmailDialog("Re: " + originalSubject, originalFrom, "");
+        DatabaseHelper.EmailHeader original = selectedOriginal();
+        if (original != null) {
+            showEmailDialog(toModel(original).createReply(), original, false);
         } else {
             JOptionPane.showMessageDialog(this, "Please select an email to reply to.");
         }
     }
 
     private void forwardEmail() {
-        int selectedRow = emailTable.getSelectedRow();
-        if (selectedRow >= 0) {
-            String originalSubject = (String) tableModel.getValueAt(selectedRow, 1);
-            String originalContent = emailContent.getText();
-
-            showEmailDialog("Fwd: " + originalSubject, "", 
-                          "\n\n-------- Forwarded Message --------\n" + originalContent);
+        DatabaseHelper.EmailHeader original = selectedOriginal();
+        if (original != null) {
+            showEmailDialog(toModel(original).createForward(), original, true);
         } else {
             JOptionPane.showMessageDialog(this, "Please select an email to forward.");
         }
     }
 
-    private void showEmailDialog(String subject, String to, String initialContent) {
+    // The selected message, undecorated: a thread row stands for the thread's newest message
+    private DatabaseHelper.EmailHeader selectedOriginal() {
+        int selectedRow = emailTable.getSelectedRow();
+        DatabaseHelper.EmailHeader header = selectedRow < 0 ? null : tableModel.getHeader(selectedRow);
+        if (header != null && threadRows != null && threadRows.containsKey(header.id)) {
+            return threadRows.get(header.id).latest;
+        }
+        return header;
+    }
+
+    private static Email toModel(DatabaseHelper.EmailHeader header) {
+        return new Email(header.id, header.fromUser, header.toUser, header.subject, null, header.sentDate,
+                         Email.EmailStatus.valueOf(header.status), header.isRead);
+    }
+
+    private static Email toModel(DatabaseHelper.Email email) {
+        Email model = new Email(email.id, email.fromUser, email.toUser, email.subject, email.getContent(),
+                                email.sentDate, Email.EmailStatus.valueOf(email.status), email.isRead);
+        model.setParentId(email.parentId);
+        model.setThreadId(email.threadId);
+        return model;
+    }
+
+    /**
+     * Compose window for a reply or forward. The text area holds only the new message; the
+     * original is shown read-only underneath and stays a reference (parentId) when sent.
+     */
+    private void showEmailDialog(Email draft, DatabaseHelper.EmailHeader original, boolean forwarded) {
         JDialog emailDialog = new JDialog(this, "Compose Email", true);
-        emailDialog.setSize(600, 400);
+        emailDialog.setSize(600, 500);
         emailDialog.setLocationRelativeTo(this);
 
         JPanel panel = new JPanel(new BorderLayout());
@@ -311,22 +503,32 @@ public class EmailInterface extends JFrame {
         gbc.gridx = 0; gbc.gridy = 0;
         headerPanel.add(new JLabel("To:"), gbc);
         gbc.gridx = 1;
-        JTextField toField = new JTextField(to, 40);
+        JTextField toField = new JTextField(draft.getToUser() != null ? draft.getToUser() : "", 40);
         headerPanel.add(toField, gbc);
 
         // Subject field
         gbc.gridx = 0; gbc.gridy = 1;
         headerPanel.add(new JLabel("Subject:"), gbc);
         gbc.gridx = 1;
-        JTextField subjectField = new JTextField(subject, 40);
+        JTextField subjectField = new JTextField(draft.getSubject(), 40);
         headerPanel.add(subjectField, gbc);
 
         // Email content
-        JTextArea content = new JTextArea(15, 40);
-        content.setText(initialContent);
+        JTextArea content = new JTextArea(10, 40);
+        content.setText(draft.getContent());
         content.setLineWrap(true);
         content.setWrapStyleWord(true);
-        JScrollPane scrollPane = new JScrollPane(content);
+
+        // The original, for reference only
+        JTextArea quoted = new JTextArea(8, 40);
+        quoted.setEditable(false);
+        quoted.setLineWrap(true);
+        quoted.setWrapStyleWord(true);
+        showQuoted(quoted, original, forwarded);
+
+        JPanel bodyPanel = new JPanel(new GridLayout(2, 1, 0, 4));
+        bodyPanel.add(new JScrollPane(content));
+        bodyPanel.add(new JScrollPane(quoted));
 
         // Buttons
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -338,16 +540,18 @@ public class EmailInterface extends JFrame {
         buttonPanel.add(cancelButton);
 
         panel.add(headerPanel, BorderLayout.NORTH);
-        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(bodyPanel, BorderLayout.CENTER);
         panel.add(buttonPanel, BorderLayout.SOUTH);
 
+        // A reply joins the original's thread; a forward starts one of its own
+        boolean joinThread = draft.getThreadId() != 0;
         sendButton.addActionListener(e -> {
-            sendEmail(toField.getText(), subjectField.getText(), content.getText());
+            sendEmail(toField.getText(), subjectField.getText(), content.getText(), draft.getParentId(), joinThread);
             emailDialog.dispose();
         });
 
         saveButton.addActionListener(e -> {
-            saveDraft(toField.getText(), subjectField.getText(), content.getText());
+            saveDraft(toField.getText(), subjectField.getText(), content.getText(), draft.getParentId(), joinThread);
             emailDialog.dispose();
         });
 
@@ -361,6 +565,40 @@ public class EmailInterface extends JFrame {
         emailDialog.setVisible(true);
     }
 
+    // Fills the area with the original's quoted block, reading its body off the EDT
+    private void showQuoted(JTextArea quoted, DatabaseHelper.EmailHeader original, boolean forwarded) {
+        Email model = toModel(original);
+        if (db == null || original.id <= 0) {
+            model.setContent(SAMPLE_BODY);
+            quoted.setText(model.formatQuoted(forwarded).trim());
+            return;
+        }
+        quoted.setText("Loading original message...");
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws SQLException {
+                return db.getEmailContent(original, currentUser);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    String body = get();
+                    if (body == null) {
+                        quoted.setText("The original message is no longer available.");
+                        return;
+                    }
+                    model.setContent(body);
+                    quoted.setText(model.formatQuoted(forwarded).trim());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    quoted.setText("Failed to load the original message: " + e.getCause().getMessage());
+                }
+            }
+        }.execute();
+    }
+
     private boolean confirmDiscard() {
         return JOptionPane.showConfirmDialog(this,
             "Discard this email?",
@@ -369,123 +607,383 @@ public class EmailInterface extends JFrame {
     }
 
     private void deleteSelectedEmail() {
-        int selectedRow = emailTable.getSelectedRow();
-        if (selectedRow >= 0) {
+        if (threadRows != null) {
+            updateStatus("Turn off View > Group by Thread to delete single messages");
+            return;
+        }
+        int[] selectedRows = emailTable.getSelectedRows();
+        if (selectedRows.length > 0) {
             int confirm = JOptionPane.showConfirmDialog(this,
-                "Are you sure you want to delete this email?",
+                selectedRows.length == 1 ? "Are you sure you want to delete this email?"
+                                         : "Are you sure you want to delete " + selectedRows.length + " emails?",
                 "Confirm Delete",
                 JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                // This would normally delete from database
-                tableModel.removeRow(selectedRow);
-                emailContent.setText("");
-                updateStatus("Email deleted successfully");
+                java.util.List<DatabaseHelper.EmailHeader> headers =
+                    db == null ? java.util.Collections.emptyList() : selectedHeaders(selectedRows);
+                if (headers.isEmpty()) {
+                    tableModel.removeRows(selectedRows);
+                    showDeleted(selectedRows.length);
+                    return;
+                }
+                // The delete runs on a worker so a slow database does not freeze the window
+                updateStatus("Deleting...");
+                new SwingWorker<Void, Void>() {
+                    @Override
+                    protected Void doInBackground() throws SQLException {
+                        db.deleteEmails(headers, currentUser);
+                        return null;
+                    }
+
+                    @Override
+                    protected void done() {
+                        try {
+                            get();
+                            // Folder rows were removed, and every later block shifts, so the listing is re-read
+                            // rather than edited by row indexes that may be stale by now
+                            reloadListing();
+                            showDeleted(selectedRows.length);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (java.util.concurrent.ExecutionException e) {
+                            updateStatus("Failed to delete: " + e.getCause().getMessage());
+                        }
+                    }
+                }.execute();
             }
         } else {
             JOptionPane.showMessageDialog(this, "Please select an email to delete.");
         }
     }
 
+    private void showDeleted(int count) {
+        emailContent.setText("");
+        updateStatus(count == 1 ? "Email deleted successfully" : count + " emails deleted successfully");
+    }
+
     private void markSelectedAsRead() {
-        int selectedRow = emailTable.getSelectedRow();
-        if (selectedRow >= 0) {
-            tableModel.setValueAt("Read", selectedRow, 3);
-            updateStatus("Email marked as read");
-        }
+        setSelectedReadState(true);
     }
 
     private void markSelectedAsUnread() {
-        int selectedRow = emailTable.getSelectedRow();
-        if (selectedRow >= 0) {
-            tableModel.setValueAt("Unread", selectedRow, 3);
-            updateStatus("Email marked as unread");
+        setSelectedReadState(false);
+    }
+
+    private void setSelectedReadState(boolean read) {
+        if (threadRows != null) {
+            updateStatus("Turn off View > Group by Thread to mark single messages");
+            return;
         }
+        int[] selectedRows = emailTable.getSelectedRows();
+        if (selectedRows.length == 0) {
+            return;
+        }
+
+        java.util.List<DatabaseHelper.EmailHeader> headers =
+            db == null ? java.util.Collections.emptyList() : selectedHeaders(selectedRows);
+        if (readStateBuffer != null) {
+            for (DatabaseHelper.EmailHeader header : headers) {
+                readStateBuffer.setRead(currentUser, header.id, read);
+            }
+        }
+        if (headers.isEmpty() || readStateBuffer != null) {
+            showReadState(selectedRows, null, read);
+            return;
+        }
+
+        // Written straight through, on a worker; the rows change once the update has committed
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws SQLException {
+                if (read) {
+                    db.markAsRead(headers, currentUser);
+                } else {
+                    db.markAsUnread(headers, currentUser);
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    showReadState(selectedRows, headers, read);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    updateStatus("Failed to update emails: " + e.getCause().getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    // With written non-null, rows that no longer hold one of those messages are left alone
+    private void showReadState(int[] rows, java.util.List<DatabaseHelper.EmailHeader> written, boolean read) {
+        java.util.Set<Integer> ids = new java.util.HashSet<>();
+        if (written != null) {
+            for (DatabaseHelper.EmailHeader header : written) {
+                ids.add(header.id);
+            }
+        }
+        for (int row : rows) {
+            if (row >= tableModel.getRowCount()) {
+                continue;
+            }
+            DatabaseHelper.EmailHeader header = tableModel.getHeader(row);
+            if (written == null || (header != null && (header.id == 0 || ids.contains(header.id)))) {
+                tableModel.setRead(row, read);
+            }
+        }
+        updateStatus((rows.length == 1 ? "Email" : rows.length + " emails") +
+                     " marked as " + (read ? "read" : "unread"));
+    }
+
+    // Ids of the selected rows that came from the database; rows added locally have id 0
+    // Headers rather than bare ids, so the database can go straight to each message's partition
+    private java.util.List<DatabaseHelper.EmailHeader> selectedHeaders(int[] selectedRows) {
+        return java.util.Arrays.stream(selectedRows)
+            .mapToObj(row -> tableModel.getHeader(row))
+            .filter(header -> header != null && header.id > 0)
+            .collect(java.util.stream.Collectors.toList());
     }
 
     private void refreshEmails() {
-        // This would normally refresh from database
-        tableModel.setRowCount(0);
-        loadEmails();
+        reloadListing();
         updateStatus("Emails refreshed");
     }
 
-      private void sortEmails(String criteria) {
-          // Implement sorting based on the selected criteria
-          // Note: This is a simple implementation. In a real app, you'd want to sort the actual data
-          int rowCount = tableModel.getRowCount();
-          Object[][] data = new Object[rowCount][4];
-
-          // Copy data to array
-          for (int i = 0; i < rowCount; i++) {
-              for (int j = 0; j < 4; j++) {
-                  data[i][j] = tableModel.getValueAt(i, j);
-              }
-          }
+    // Re-reads the inbox, or re-runs the search being shown
+    private void reloadListing() {
+        if (searchIndexReady && !searchField.getText().trim().isEmpty()) {
+            runSearch();
+        } else {
+            loadEmails();
+        }
+    }
 
-          // Sort based on criteria
+      private void sortEmails(String criteria) {
+          DatabaseHelper.SortKey sort;
           switch (criteria) {
               case "date":
-                  java.util.Arrays.sort(data, (a, b) -> ((String)b[2]).compareTo((String)a[2]));
+                  sort = DatabaseHelper.SortKey.DATE;
                   break;
               case "sender":
-                  java.util.Arrays.sort(data, (a, b) -> ((String)a[0]).compareTo((String)b[0]));
+                  sort = DatabaseHelper.SortKey.SENDER;
                   break;
-              case "subject":
-                  java.util.Arrays.sort(data, (a, b) -> ((String)a[1]).compareTo((String)b[1]));
+              default:
+                  sort = DatabaseHelper.SortKey.SUBJECT;
                   break;
           }
 
-          // Update table
-          tableModel.setRowCount(0);
-          for (Object[] row : data) {
-              tableModel.addRow(row);
-          }
-
+          // Sorted in place if the whole folder is loaded, otherwise re-read in ORDER BY order
+          tableModel.sortBy(sort);
           updateStatus("Emails sorted by " + criteria);
       }
 
-      private void sendEmail(String to, String subject, String content) {
-          // This would normally send the email through SMTP server
-          DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-          String currentTime = LocalDateTime.now().format(formatter);
-
-          Object[] newRow = {currentUser, subject, currentTime, "Sent"};
-          tableModel.addRow(newRow);
+      private void sendEmail(String to, String subject, String content, int parentId, boolean joinThread) {
+          storeEmail("SENT", to, subject, content, parentId, joinThread);
+      }
 
-          updateStatus("Email sent successfully");
+      private void saveDraft(String to, String subject, String content, int parentId, boolean joinThread) {
+          storeEmail("DRAFT", to, subject, content, parentId, joinThread);
       }
 
-      private void saveDraft(String to, String subject, String content) {
-          // This would normally save to database
-          DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-          String currentTime = LocalDateTime.now().format(formatter);
+      // Only the new text is stored; a reply or forward points at its original through parentId
+      private void storeEmail(String status, String to, String subject, String content, int parentId,
+                              boolean joinThread) {
+          boolean draft = "DRAFT".equals(status);
+          String stored = draft ? "Draft saved successfully" : "Email sent successfully";
+          if (db == null) {
+              // No database configured, so the message only shows up in this window
+              tableModel.addLocalRow(new DatabaseHelper.EmailHeader(0, currentUser, to, subject,
+                  LocalDateTime.now(), status, true));
+              updateStatus(stored);
+              return;
+          }
 
-          Object[] newRow = {to, subject, currentTime, "Draft"};
-          tableModel.addRow(newRow);
+          new SwingWorker<Integer, Void>() {
+              @Override
+              protected Integer doInBackground() throws SQLException {
+                  return draft ? db.saveDraft(currentUser, to, subject, content, parentId, joinThread)
+                               : db.sendEmail(currentUser, to, subject, content, parentId, joinThread);
+              }
 
-          updateStatus("Draft saved successfully");
+              @Override
+              protected void done() {
+                  try {
+                      get();
+                      updateStatus(stored);
+                  } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                  } catch (java.util.concurrent.ExecutionException e) {
+                      updateStatus((draft ? "Failed to save draft: " : "Failed to send email: ") +
+                                   e.getCause().getMessage());
+                  }
+              }
+          }.execute();
       }
 
       private void displaySelectedEmail() {
+          // Whatever the previous selection was still fetching is no longer wanted
+          if (bodyLoader != null) {
+              bodyLoader.cancel(true);
+              bodyLoader = null;
+          }
+
           int selectedRow = emailTable.getSelectedRow();
           if (selectedRow >= 0) {
-              String from = (String) tableModel.getValueAt(selectedRow, 0);
-              String subject = (String) tableModel.getValueAt(selectedRow, 1);
-              String date = (String) tableModel.getValueAt(selectedRow, 2);
-
-              // This would normally fetch the full email content from database
-              String content = "From: " + from + "\n" +
-                             "Subject: " + subject + "\n" +
-                             "Date: " + date + "\n\n" +
-                             "This is a sample email content.\n" +
-                             "In a real application, this would be the actual email content " +
-                             "fetched from the database.";
-
-              emailContent.setText(content);
-
-              // Mark as read
-              tableModel.setValueAt("Read", selectedRow, 3);
+              DatabaseHelper.EmailHeader header = tableModel.getHeader(selectedRow);
+              if (header == null) {
+                  emailContent.setText("");  // Row not loaded yet
+                  return;
+              }
+
+              if (db != null && header.id > 0) {
+                  // The listing only carries headers, so the body is fetched on demand
+                  emailContent.setText("Loading...");
+                  bodyLoader = new BodyLoader(header, threadRows == null ? null : threadRows.get(header.id));
+                  bodyLoader.execute();
+                  return;
+              }
+
+              showEmail(selectedRow, SAMPLE_BODY);
+          }
+      }
+
+      private void showEmail(int row, String body) {
+          String from = (String) tableModel.getValueAt(row, 0);
+          String subject = (String) tableModel.getValueAt(row, 1);
+          String date = (String) tableModel.getValueAt(row, 2);
+
+          String content = "From: " + from + "\n" +
+                         "Subject: " + subject + "\n" +
+                         "Date: " + date + "\n\n" +
+                         body;
+
+          emailContent.setText(content);
+
+          // Mark as read
+          tableModel.setRead(row, true);
+      }
+
+      // Fetches one message, or a whole thread, and marks what was shown read, off the EDT
+      private class BodyLoader extends SwingWorker<String, Void> {
+          private final DatabaseHelper.EmailHeader header;
+          private final DatabaseHelper.ThreadSummary thread;  // null for a single message
+
+          BodyLoader(DatabaseHelper.EmailHeader header, DatabaseHelper.ThreadSummary thread) {
+              this.header = header;
+              this.thread = thread;
+          }
+
+          @Override
+          protected String doInBackground() throws SQLException {
+              if (thread != null) {
+                  return loadThread();
+              }
+              DatabaseHelper.Email email = db.getEmail(header, currentUser);
+              if (email == null) {
+                  return null;
+              }
+              String body = email.getContent() + quotedOriginal(email);
+              if (!isCancelled() && !header.isRead && header.toUser.equals(currentUser)) {
+                  markRead(java.util.Collections.singletonList(header));
+              }
+              return body;
+          }
+
+          // Oldest first; a message quotes its original only when that is outside the thread (a forward)
+          private String loadThread() throws SQLException {
+              java.util.List<DatabaseHelper.Email> messages = db.getThread(thread.threadId, currentUser);
+              if (messages.isEmpty()) {
+                  return null;
+              }
+              java.util.Set<Integer> inThread = new java.util.HashSet<>();
+              for (DatabaseHelper.Email message : messages) {
+                  inThread.add(message.id);
+              }
+
+              StringBuilder text = new StringBuilder();
+              java.util.List<DatabaseHelper.EmailHeader> unread = new java.util.ArrayList<>();
+              for (DatabaseHelper.Email message : messages) {
+                  if (text.length() > 0) {
+                      text.append("\n\n========================================\n\n");
+                  }
+                  text.append("From: ").append(message.fromUser).append("\n")
+                      .append("To: ").append(message.toUser).append("\n")
+                      .append("Date: ").append(message.sentDate).append("\n")
+                      .append("Subject: ").append(message.subject).append("\n\n")
+                      .append(message.getContent());
+                  if (!inThread.contains(message.parentId)) {
+                      text.append(quotedOriginal(message));
+                  }
+                  if (!message.isRead && "SENT".equals(message.status) && currentUser.equals(message.toUser)) {
+                      unread.add(new DatabaseHelper.EmailHeader(message.id, message.fromUser, message.toUser,
+                          message.subject, message.sentDate, message.status, false));
+                  }
+              }
+              if (!isCancelled() && !unread.isEmpty()) {
+                  markRead(unread);
+              }
+              return text.toString();
+          }
+
+          private String quotedOriginal(DatabaseHelper.Email email) throws SQLException {
+              if (email.parentId == 0) {
+                  return "";
+              }
+              DatabaseHelper.Email original = db.getQuotedEmail(email.parentId, currentUser);
+              if (original == null) {
+                  return "\n\n(The quoted message is no longer available.)";
+              }
+              return toModel(original).formatQuoted(original.threadId != email.threadId);
+          }
+
+          private void markRead(java.util.List<DatabaseHelper.EmailHeader> headers) throws SQLException {
+              if (readStateBuffer != null) {
+                  for (DatabaseHelper.EmailHeader unread : headers) {
+                      readStateBuffer.setRead(currentUser, unread.id, true);
+                  }
+              } else {
+                  db.markAsRead(headers, currentUser);
+              }
+          }
+
+          @Override
+          protected void done() {
+              if (isCancelled() || bodyLoader != this) {
+                  return;
+              }
+              bodyLoader = null;
+
+              // Rows may have been added or removed meanwhile, so find the message again
+              int row = emailTable.getSelectedRow();
+              DatabaseHelper.EmailHeader current = row < 0 ? null : tableModel.getHeader(row);
+              if (current == null || current.id != header.id) {
+                  return;
+              }
+              try {
+                  String body = get();
+                  if (body == null) {
+                      emailContent.setText("");
+                      updateStatus("Email no longer exists");
+                      return;
+                  }
+                  if (thread != null) {
+                      // Every message carries its own header lines
+                      emailContent.setText(body);
+                      emailContent.setCaretPosition(0);
+                      tableModel.setRead(row, true);
+                      return;
+                  }
+                  showEmail(row, body);
+              } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+              } catch (java.util.concurrent.ExecutionException e) {
+                  emailContent.setText("");
+                  updateStatus("Failed to load email: " + e.getCause().getMessage());
+              }
           }
       }
 
@@ -542,10 +1040,22 @@ public class EmailInterface extends JFrame {
               JOptionPane.YES_NO_OPTION);
 
           if (confirm == JOptionPane.YES_OPTION) {
+              flushReadState();
+              saveSearchIndex();
               System.exit(0);
           }
       }
 
+      private void flushReadState() {
+          if (readStateBuffer != null) {
+              try {
+                  readStateBuffer.flush(currentUser);
+              } catch (SQLException e) {
+                  System.err.println("Failed to save read state: " + e.getMessage());
+              }
+          }
+      }
+
       private void updateStatus(String message) {
           statusLabel.setText(message);
           // Clear status after 3 seconds
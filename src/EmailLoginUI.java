@@ -21,6 +21,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.CompletionException;
 
 public class EmailLoginUI extends JFrame {
     private final UserManager userManager;
@@ -39,6 +40,14 @@ public class EmailLoginUI extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
         setBackground(Color.WHITE);
+
+        // The window is disposed after a successful login; stop the hashing and session threads with it
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                userManager.close();
+            }
+        });
         getContentPane().setBackground(Color.WHITE);
 
         // Create panels
@@ -148,7 +157,30 @@ public class EmailLoginUI extends JFrame {
         String username = usernameField.getText();
         String password = new String(passwordField.getPassword());
 
-        UserManager.AuthResult result = userManager.login(username, password);
+        // Password verification runs on the hashing pool; the result is applied back on the EDT.
+        // whenComplete also sees failures, so the button always comes back
+        loginButton.setEnabled(false);
+        userManager.loginAsync(username, password).whenComplete((result, error) ->
+            SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    showLoginError(error instanceof CompletionException && error.getCause() != null
+                                   ? error.getCause() : error);
+                } else {
+                    showLoginResult(username, result);
+                }
+            }));
+    }
+
+    private void showLoginError(Throwable error) {
+        System.err.println("Login failed: " + error);
+        loginButton.setEnabled(true);
+        statusLabel.setForeground(Color.RED);
+        statusLabel.setText("Login failed due to an internal error. Please try again.");
+        passwordField.setText("");
+    }
+
+    private void showLoginResult(String username, UserManager.AuthResult result) {
+        loginButton.setEnabled(true);
 
         if (result.success) {
             statusLabel.setForeground(Color.GREEN);
@@ -0,0 +1,400 @@
+// FolderPageCache.java
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Folder listings (summaries, page cursors and header pages) cached per user in front of a
+ * FolderSource, so that refreshing a folder nobody has touched is served from memory. The
+ * cache is bounded by an estimate of its heap use and evicts least recently used entries.
+ *
+ * Changes made through this process's DatabaseHelper arrive as MailboxListener events and
+ * drop exactly the folders they affect: a send the recipient's inbox and the sender's sent
+ * folder, a read/unread flip the reader's inbox, a draft save the author's drafts, a delete
+ * every folder of the people involved. Changes made by other clients are caught through the
+ * per-folder revisions in mailbox_counters: once a cached summary is older than
+ * revalidateMillis the next getFolderSummary re-reads it (one primary-key lookup) and drops
+ * any folder whose revision moved. LazyEmailTableModel reads the summary first on every
+ * reload, so a refresh never shows pages older than that.
+ *
+ * A load that overlaps an invalidation of its folder is returned but not cached. Cached keys
+ * are also indexed per user and folder, so an invalidation touches only its own entries, and a
+ * user's bookkeeping is dropped once nothing of theirs is cached or loading.
+ */
+public class FolderPageCache implements FolderSource, MailboxListener, AutoCloseable {
+    public static class Settings {
+        public long maxBytes = 8L * 1024 * 1024;
+        // How long a cached summary is trusted before it is checked against the database again
+        public long revalidateMillis = 1000;
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;      // dropped to stay under maxBytes
+        public final long invalidations;  // dropped because their folder changed
+        public final int entries;
+        public final long estimatedBytes;
+        public final int users;  // with something cached or loading
+
+        public Stats(long hits, long misses, long evictions, long invalidations, int entries, long estimatedBytes,
+                     int users) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.entries = entries;
+            this.estimatedBytes = estimatedBytes;
+            this.users = users;
+        }
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private enum Kind {
+        SUMMARY,
+        CURSOR,
+        PAGE
+    }
+
+    private static final DatabaseHelper.Folder[] FOLDERS = DatabaseHelper.Folder.values();
+    private static final int SUMMARY_SCOPE = FOLDERS.length;  // index after the folders in UserState arrays
+    private static final long ENTRY_OVERHEAD = 160;  // key, entry and map node
+    private static final long SUMMARY_BYTES = 72;
+    private static final long CURSOR_BYTES = 104;
+
+    private static final class Key {
+        final String username;
+        final DatabaseHelper.Folder folder;  // null for the summary
+        final Kind kind;
+        final DatabaseHelper.SortKey sort;
+        final String sortValue;  // the page's starting cursor, if any
+        final LocalDateTime sentDate;
+        final int emailId;
+        final int n;  // page size or offset
+
+        Key(String username, DatabaseHelper.Folder folder, Kind kind, DatabaseHelper.SortKey sort,
+            DatabaseHelper.PageCursor after, int n) {
+            this.username = username;
+            this.folder = folder;
+            this.kind = kind;
+            this.sort = sort;
+            this.sortValue = after != null ? after.sortValue : null;
+            this.sentDate = after != null ? after.sentDate : null;
+            this.emailId = after != null ? after.emailId : 0;
+            this.n = n;
+        }
+
+        int scope() {
+            return folder == null ? SUMMARY_SCOPE : folder.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return emailId == key.emailId && n == key.n && kind == key.kind && folder == key.folder &&
+                   sort == key.sort && username.equals(key.username) &&
+                   Objects.equals(sortValue, key.sortValue) && Objects.equals(sentDate, key.sentDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, folder, kind, sort, sortValue, sentDate, emailId, n);
+        }
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long bytes;
+        final long loadedAt;
+
+        Entry(Object value, long bytes, long loadedAt) {
+            this.value = value;
+            this.bytes = bytes;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final class UserState {
+        final long[] generations = new long[FOLDERS.length + 1];  // bumped on every invalidation
+        final long[] revisions = new long[FOLDERS.length];        // as of the last summary read
+        final List<Set<Key>> keys = new ArrayList<>(FOLDERS.length + 1);  // cached, per folder then summary
+        int loads;  // in flight; their generation checks need this state kept
+
+        UserState() {
+            Arrays.fill(revisions, -1);
+            for (int i = 0; i <= FOLDERS.length; i++) {
+                keys.add(new HashSet<>());
+            }
+        }
+
+        boolean idle() {
+            if (loads > 0) {
+                return false;
+            }
+            for (Set<Key> scope : keys) {
+                if (!scope.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    private final FolderSource source;
+    private final DatabaseHelper db;  // null when the owner forwards mailbox events itself
+    private final Settings settings;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, UserState> users = new HashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public FolderPageCache(DatabaseHelper db) {
+        this(db, new Settings());
+    }
+
+    public FolderPageCache(DatabaseHelper db, Settings settings) {
+        this(db, db, settings);
+        db.addMailboxListener(this);
+    }
+
+    // For a source other than a DatabaseHelper; the caller delivers the MailboxListener events
+    public FolderPageCache(FolderSource source, Settings settings) {
+        this(source, null, settings);
+    }
+
+    private FolderPageCache(FolderSource source, DatabaseHelper db, Settings settings) {
+        this.source = source;
+        this.db = db;
+        this.settings = settings;
+    }
+
+    @Override
+    public DatabaseHelper.FolderSummary getFolderSummary(String username) throws SQLException {
+        Key key = new Key(username, null, Kind.SUMMARY, null, null, 0);
+        long generation;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < settings.revalidateMillis) {
+                hits++;
+                return (DatabaseHelper.FolderSummary) entry.value;
+            }
+            misses++;
+            UserState state = users.computeIfAbsent(username, k -> new UserState());
+            state.loads++;
+            generation = state.generations[SUMMARY_SCOPE];
+        }
+
+        DatabaseHelper.FolderSummary summary = null;
+        try {
+            summary = source.getFolderSummary(username);
+        } finally {
+            synchronized (this) {
+                UserState state = users.get(username);
+                state.loads--;
+                if (summary != null && state.generations[SUMMARY_SCOPE] == generation) {
+                    // A revision we have not seen means another client changed that folder
+                    for (DatabaseHelper.Folder folder : FOLDERS) {
+                        if (state.revisions[folder.ordinal()] != summary.revision(folder)) {
+                            state.revisions[folder.ordinal()] = summary.revision(folder);
+                            state.generations[folder.ordinal()]++;
+                            remove(state, folder.ordinal());
+                        }
+                    }
+                    put(key, summary, SUMMARY_BYTES);
+                }
+                pruneIfIdle(username, state);
+            }
+        }
+        return summary;
+    }
+
+    @Override
+    public DatabaseHelper.PageCursor getPageCursor(DatabaseHelper.Folder folder, DatabaseHelper.SortKey sort,
+                                                   String username, int offset) throws SQLException {
+        return get(new Key(username, folder, Kind.CURSOR, sort, null, offset),
+                   () -> source.getPageCursor(folder, sort, username, offset));
+    }
+
+    @Override
+    public DatabaseHelper.Page<DatabaseHelper.EmailHeader> getHeaderPage(DatabaseHelper.Folder folder,
+                                                                         DatabaseHelper.SortKey sort, String username,
+                                                                         DatabaseHelper.PageCursor after,
+                                                                         int pageSize) throws SQLException {
+        return get(new Key(username, folder, Kind.PAGE, sort, after, pageSize),
+                   () -> source.getHeaderPage(folder, sort, username, after, pageSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(Key key, Loader<T> loader) throws SQLException {
+        long generation;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+            UserState state = users.computeIfAbsent(key.username, k -> new UserState());
+            state.loads++;
+            generation = state.generations[key.scope()];
+        }
+
+        T value = null;
+        boolean loaded = false;
+        try {
+            value = loader.load();
+            loaded = true;
+        } finally {
+            synchronized (this) {
+                UserState state = users.get(key.username);
+                state.loads--;
+                if (loaded && state.generations[key.scope()] == generation) {
+                    put(key, value, estimateBytes(value));
+                }
+                pruneIfIdle(key.username, state);
+            }
+        }
+        return value;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, invalidations, entries.size(), bytes, users.size());
+    }
+
+    // Mailbox events, delivered after the change has been committed
+
+    @Override
+    public void emailAdded(DatabaseHelper.Email email) {
+        if ("DRAFT".equals(email.status)) {
+            invalidate(email.fromUser, DatabaseHelper.Folder.DRAFTS);
+        } else {
+            invalidate(email.toUser, DatabaseHelper.Folder.INBOX);
+            invalidate(email.fromUser, DatabaseHelper.Folder.SENT);
+        }
+    }
+
+    @Override
+    public void draftUpdated(DatabaseHelper.Email draft) {
+        invalidate(draft.fromUser, DatabaseHelper.Folder.DRAFTS);
+    }
+
+    @Override
+    public void emailsDeleted(int[] emailIds, Set<String> affectedUsers) {
+        for (String username : affectedUsers) {
+            for (DatabaseHelper.Folder folder : FOLDERS) {
+                invalidate(username, folder);
+            }
+        }
+    }
+
+    @Override
+    public void readStateChanged(int[] emailIds, String username, boolean read) {
+        invalidate(username, DatabaseHelper.Folder.INBOX);
+    }
+
+    // Drops the folder's pages and cursors and the user's summary, whose counts include it
+    public synchronized void invalidate(String username, DatabaseHelper.Folder folder) {
+        // No state means nothing of theirs is cached or loading, so there is nothing to drop
+        UserState state = username == null ? null : users.get(username);
+        if (state == null) {
+            return;
+        }
+        state.generations[folder.ordinal()]++;
+        state.generations[SUMMARY_SCOPE]++;
+        remove(state, folder.ordinal());
+        remove(state, SUMMARY_SCOPE);
+        pruneIfIdle(username, state);
+    }
+
+    private void remove(UserState state, int scope) {
+        Set<Key> keys = state.keys.get(scope);
+        for (Key key : keys) {
+            bytes -= entries.remove(key).bytes;
+            invalidations++;
+        }
+        keys.clear();
+    }
+
+    // A later load starts from fresh generations, which is safe as no load of theirs is in flight
+    private void pruneIfIdle(String username, UserState state) {
+        if (state.idle()) {
+            users.remove(username);
+        }
+    }
+
+    private void put(Key key, Object value, long size) {
+        long entryBytes = size + ENTRY_OVERHEAD;
+        if (entryBytes > settings.maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, entryBytes, System.currentTimeMillis()));
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entryBytes;
+        users.get(key.username).keys.get(key.scope()).add(key);
+
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > settings.maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> entry = eldest.next();
+            Key evicted = entry.getKey();
+            bytes -= entry.getValue().bytes;
+            eldest.remove();
+            evictions++;
+            UserState owner = users.get(evicted.username);
+            owner.keys.get(evicted.scope()).remove(evicted);
+            pruneIfIdle(evicted.username, owner);
+        }
+    }
+
+    // Rough shallow-plus-strings sizes for a 64-bit JVM with compressed oops and compact strings
+    private static long estimateBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (!(value instanceof DatabaseHelper.Page)) {
+            return CURSOR_BYTES;
+        }
+        DatabaseHelper.Page<?> page = (DatabaseHelper.Page<?>) value;
+        long size = 64 + CURSOR_BYTES + 4L * page.items.size();
+        for (Object item : page.items) {
+            DatabaseHelper.EmailHeader header = (DatabaseHelper.EmailHeader) item;
+            size += 40 + 48 + stringBytes(header.fromUser) + stringBytes(header.toUser) +
+                    stringBytes(header.subject) + stringBytes(header.status);
+        }
+        return size;
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : 40 + s.length();
+    }
+
+    @Override
+    public void close() {
+        if (db != null) {
+            db.removeMailboxListener(this);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+// FolderSource.java
+import java.sql.SQLException;
+
+/**
+ * The folder reads a listing needs. DatabaseHelper answers them with queries; FolderPageCache
+ * answers them from memory in front of it.
+ */
+public interface FolderSource {
+    DatabaseHelper.FolderSummary getFolderSummary(String username) throws SQLException;
+
+    DatabaseHelper.PageCursor getPageCursor(DatabaseHelper.Folder folder, DatabaseHelper.SortKey sort,
+                                            String username, int offset) throws SQLException;
+
+    DatabaseHelper.Page<DatabaseHelper.EmailHeader> getHeaderPage(DatabaseHelper.Folder folder,
+                                                                  DatabaseHelper.SortKey sort, String username,
+                                                                  DatabaseHelper.PageCursor after,
+                                                                  int pageSize) throws SQLException;
+}
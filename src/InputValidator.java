@@ -0,0 +1,163 @@
+// InputValidator.java
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Username and password rules for registration. Each check walks the input once, uses no
+ * regex and allocates nothing: violations come back as a bit mask of {@link Rule}s, and
+ * messages are only built when a caller asks for them.
+ */
+public final class InputValidator {
+    public static final int USERNAME_MIN_LENGTH = 6;
+    public static final int USERNAME_MAX_LENGTH = 30;
+    public static final int PASSWORD_MIN_LENGTH = 8;
+
+    public enum Rule {
+        USERNAME_EMPTY("Username cannot be empty"),
+        USERNAME_LENGTH("Username must be between 6-30 characters"),
+        USERNAME_CHARACTERS("Username can only contain letters, numbers, dots, and underscores"),
+        USERNAME_EDGES("Username cannot start or end with dots or underscores"),
+        USERNAME_CONSECUTIVE("Username cannot contain consecutive dots or underscores"),
+        USERNAME_NO_LETTER("Username must contain at least one letter"),
+        PASSWORD_EMPTY("Password cannot be empty"),
+        PASSWORD_LENGTH("Password must be at least 8 characters long"),
+        PASSWORD_NO_UPPERCASE("Password must contain at least one uppercase letter"),
+        PASSWORD_NO_LOWERCASE("Password must contain at least one lowercase letter"),
+        PASSWORD_NO_DIGIT("Password must contain at least one number"),
+        PASSWORD_NO_SPECIAL("Password must contain at least one special character");
+
+        public final String message;
+        public final int bit;
+
+        Rule(String message) {
+            this.message = message;
+            this.bit = 1 << ordinal();
+        }
+    }
+
+    private static final Rule[] RULES = Rule.values();
+
+    private InputValidator() {
+    }
+
+    // Returns 0 when the username is valid, otherwise the bits of every rule it breaks
+    public static int checkUsername(CharSequence username) {
+        if (isBlank(username)) {
+            return Rule.USERNAME_EMPTY.bit;
+        }
+
+        int violations = 0;
+        int length = username.length();
+        if (length < USERNAME_MIN_LENGTH || length > USERNAME_MAX_LENGTH) {
+            violations |= Rule.USERNAME_LENGTH.bit;
+        }
+
+        boolean hasLetter = false;
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = username.charAt(i);
+            boolean separator = c == '.' || c == '_';
+            if (isAsciiLetter(c)) {
+                hasLetter = true;
+            } else if (!isAsciiDigit(c) && !separator) {
+                violations |= Rule.USERNAME_CHARACTERS.bit;
+            }
+            if (separator && (i == 0 || i == length - 1)) {
+                violations |= Rule.USERNAME_EDGES.bit;
+            }
+            if (separator && c == previous) {
+                violations |= Rule.USERNAME_CONSECUTIVE.bit;
+            }
+            previous = c;
+        }
+        if (!hasLetter) {
+            violations |= Rule.USERNAME_NO_LETTER.bit;
+        }
+        return violations;
+    }
+
+    // Returns 0 when the password is valid, otherwise the bits of every rule it breaks
+    public static int checkPassword(CharSequence password) {
+        if (isBlank(password)) {
+            return Rule.PASSWORD_EMPTY.bit;
+        }
+
+        int violations = 0;
+        int length = password.length();
+        if (length < PASSWORD_MIN_LENGTH) {
+            violations |= Rule.PASSWORD_LENGTH.bit;
+        }
+
+        boolean hasUpper = false;
+        boolean hasLower = false;
+        boolean hasDigit = false;
+        boolean hasSpecial = false;
+        for (int i = 0; i < length; i++) {
+            char c = password.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                hasUpper = true;
+            } else if (c >= 'a' && c <= 'z') {
+                hasLower = true;
+            } else if (isAsciiDigit(c)) {
+                hasDigit = true;
+            } else {
+                hasSpecial = true;
+            }
+        }
+        if (!hasUpper) {
+            violations |= Rule.PASSWORD_NO_UPPERCASE.bit;
+        }
+        if (!hasLower) {
+            violations |= Rule.PASSWORD_NO_LOWERCASE.bit;
+        }
+        if (!hasDigit) {
+            violations |= Rule.PASSWORD_NO_DIGIT.bit;
+        }
+        if (!hasSpecial) {
+            violations |= Rule.PASSWORD_NO_SPECIAL.bit;
+        }
+        return violations;
+    }
+
+    public static boolean has(int violations, Rule rule) {
+        return (violations & rule.bit) != 0;
+    }
+
+    // Message of the first broken rule, in declaration order, or null if there is none
+    public static String firstMessage(int violations) {
+        if (violations == 0) {
+            return null;
+        }
+        return RULES[Integer.numberOfTrailingZeros(violations)].message;
+    }
+
+    public static List<String> messages(int violations) {
+        List<String> messages = new ArrayList<>(Integer.bitCount(violations));
+        for (Rule rule : RULES) {
+            if (has(violations, rule)) {
+                messages.add(rule.message);
+            }
+        }
+        return messages;
+    }
+
+    private static boolean isBlank(CharSequence value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
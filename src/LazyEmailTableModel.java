@@ -0,0 +1,529 @@
+// LazyEmailTableModel.java
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Folder listing that only holds the rows near the viewport. The row count comes from the
+ * folder counters; rows are fetched a block at a time, off the EDT, the first time the table
+ * asks for one, and at most maxBlocks blocks are kept, least recently used first out.
+ *
+ * Blocks are read with keyset pagination. The start of each block is remembered once the
+ * block before it has been read, so scrolling only pays for an OFFSET seek (on the index,
+ * without the row data) when it jumps straight into an unvisited part of the folder.
+ *
+ * The order is a DatabaseHelper.SortKey. Changing it re-reads the folder in the new order
+ * from the server, unless every row is already loaded, in which case the loaded rows are
+ * sorted into an in-memory snapshot that replaces the blocks until the next reload.
+ *
+ * Rows added locally (sample data, unsent mail) are kept apart from the folder rows and
+ * follow them, sorted by the same key. All state is confined to the EDT.
+ */
+public class LazyEmailTableModel extends AbstractTableModel {
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+    public static final int DEFAULT_MAX_BLOCKS = 20;
+    private static final String[] COLUMNS = {"From", "Subject", "Date", "Status"};
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Where folder rows come from; called on worker threads
+    public interface HeaderSource {
+        int count() throws SQLException;
+
+        // Cursor just after the first offset rows, or null if the folder is not that long
+        DatabaseHelper.PageCursor cursorAt(DatabaseHelper.SortKey sort, int offset) throws SQLException;
+
+        DatabaseHelper.Page<DatabaseHelper.EmailHeader> page(DatabaseHelper.SortKey sort, DatabaseHelper.PageCursor after,
+                                                             int pageSize) throws SQLException;
+    }
+
+    private HeaderSource source;  // null for a listing of local rows only
+    private final String username;
+    private final int blockSize;
+    private final int maxBlocks;
+    private final Map<Integer, DatabaseHelper.EmailHeader[]> blocks;               // LRU, block -> rows
+    private final Map<Integer, DatabaseHelper.PageCursor> blockStarts = new HashMap<>();
+    private final Map<Integer, BlockLoader> pending = new LinkedHashMap<>();        // oldest request first
+    private final List<DatabaseHelper.EmailHeader> localRows = new ArrayList<>();
+    private DatabaseHelper.EmailHeader[] snapshot;  // every folder row, sorted in memory; null when reading blocks
+    private int remoteCount;
+    private DatabaseHelper.SortKey sort = DatabaseHelper.SortKey.DATE;
+    private int generation;  // bumped on reload so late results from an old listing are dropped
+    private Consumer<Exception> errorHandler = e -> System.err.println("Failed to load emails: " + e.getMessage());
+
+    public LazyEmailTableModel(HeaderSource source, String username) {
+        this(source, username, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS);
+    }
+
+    public LazyEmailTableModel(HeaderSource source, String username, int blockSize, int maxBlocks) {
+        this.source = source;
+        this.username = username;
+        this.blockSize = blockSize;
+        this.maxBlocks = maxBlocks;
+        this.blocks = new LinkedHashMap<Integer, DatabaseHelper.EmailHeader[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, DatabaseHelper.EmailHeader[]> eldest) {
+                return size() > LazyEmailTableModel.this.maxBlocks;
+            }
+        };
+    }
+
+    // Reads one folder of the database or a FolderPageCache in front of it; buffered read/unread
+    // toggles are applied on the way in
+    public static HeaderSource forFolder(FolderSource source, DatabaseHelper.Folder folder, String username,
+                                         ReadStateBuffer readStateBuffer) {
+        return new HeaderSource() {
+            @Override
+            public int count() throws SQLException {
+                return source.getFolderSummary(username).total(folder);
+            }
+
+            @Override
+            public DatabaseHelper.PageCursor cursorAt(DatabaseHelper.SortKey sort, int offset) throws SQLException {
+                return source.getPageCursor(folder, sort, username, offset);
+            }
+
+            @Override
+            public DatabaseHelper.Page<DatabaseHelper.EmailHeader> page(DatabaseHelper.SortKey sort,
+                                                                        DatabaseHelper.PageCursor after,
+                                                                        int pageSize) throws SQLException {
+                return withBufferedReadState(source.getHeaderPage(folder, sort, username, after, pageSize),
+                                             username, readStateBuffer);
+            }
+        };
+    }
+
+    /**
+     * A fixed list of messages, such as MailboxIndex search results, in the given order. Pages
+     * are cut from the id list and their headers read with DatabaseHelper.getHeaders, so
+     * sort is ignored until every row is loaded and sortBy can order them in memory.
+     */
+    public static HeaderSource forIds(DatabaseHelper db, int[] emailIds, String username,
+                                      ReadStateBuffer readStateBuffer) {
+        return new HeaderSource() {
+            @Override
+            public int count() {
+                return emailIds.length;
+            }
+
+            @Override
+            public DatabaseHelper.PageCursor cursorAt(DatabaseHelper.SortKey sort, int offset) {
+                return offset < emailIds.length ? afterIndex(offset - 1) : null;
+            }
+
+            @Override
+            public DatabaseHelper.Page<DatabaseHelper.EmailHeader> page(DatabaseHelper.SortKey sort,
+                                                                        DatabaseHelper.PageCursor after,
+                                                                        int pageSize) throws SQLException {
+                int start = 0;
+                if (after != null) {
+                    while (start < emailIds.length && emailIds[start] != after.emailId) {
+                        start++;
+                    }
+                    start++;
+                }
+                int end = Math.min(emailIds.length, start + pageSize);
+                if (start >= end) {
+                    return new DatabaseHelper.Page<>(new ArrayList<>(), null);
+                }
+                List<DatabaseHelper.EmailHeader> headers =
+                    db.getHeaders(Arrays.copyOfRange(emailIds, start, end), username);
+                return withBufferedReadState(new DatabaseHelper.Page<>(headers, end < emailIds.length ? afterIndex(end - 1) : null),
+                                             username, readStateBuffer);
+            }
+
+            // Only the id matters to page(); a null cursor means the top of the list
+            private DatabaseHelper.PageCursor afterIndex(int index) {
+                return index < 0 ? null : new DatabaseHelper.PageCursor(null, emailIds[index]);
+            }
+        };
+    }
+
+    /**
+     * The threaded view of a folder: one row per thread, its newest message, with the message
+     * count appended to the subject and shown unread while any message is. Each row's summary
+     * is put in threads under the row's email id, so a selection can open the whole thread.
+     * Thread pages come newest first whatever the sort; sortBy orders them once all are loaded.
+     */
+    public static HeaderSource forThreads(DatabaseHelper db, DatabaseHelper.Folder folder, String username,
+                                          Map<Integer, DatabaseHelper.ThreadSummary> threads) {
+        return new HeaderSource() {
+            @Override
+            public int count() throws SQLException {
+                return db.countThreads(folder, username);
+            }
+
+            @Override
+            public DatabaseHelper.PageCursor cursorAt(DatabaseHelper.SortKey sort, int offset) throws SQLException {
+                return offset == 0 ? null : db.getThreadPage(folder, username, null, offset).nextCursor;
+            }
+
+            @Override
+            public DatabaseHelper.Page<DatabaseHelper.EmailHeader> page(DatabaseHelper.SortKey sort,
+                                                                        DatabaseHelper.PageCursor after,
+                                                                        int pageSize) throws SQLException {
+                DatabaseHelper.Page<DatabaseHelper.ThreadSummary> page = db.getThreadPage(folder, username, after, pageSize);
+                List<DatabaseHelper.EmailHeader> items = new ArrayList<>(page.items.size());
+                for (DatabaseHelper.ThreadSummary thread : page.items) {
+                    DatabaseHelper.EmailHeader latest = thread.latest;
+                    threads.put(latest.id, thread);
+                    items.add(new DatabaseHelper.EmailHeader(latest.id, latest.fromUser, latest.toUser,
+                        thread.messageCount > 1 ? latest.subject + " (" + thread.messageCount + ")" : latest.subject,
+                        latest.sentDate, latest.status, thread.unreadCount == 0));
+                }
+                return new DatabaseHelper.Page<>(items, page.nextCursor);
+            }
+        };
+    }
+
+    private static DatabaseHelper.Page<DatabaseHelper.EmailHeader> withBufferedReadState(
+            DatabaseHelper.Page<DatabaseHelper.EmailHeader> page, String username, ReadStateBuffer readStateBuffer) {
+        if (readStateBuffer == null) {
+            return page;
+        }
+        List<DatabaseHelper.EmailHeader> items = new ArrayList<>(page.items.size());
+        for (DatabaseHelper.EmailHeader header : page.items) {
+            items.add(header.withRead(readStateBuffer.isRead(username, header.id, header.isRead)));
+        }
+        return new DatabaseHelper.Page<>(items, page.nextCursor);
+    }
+
+    public void setErrorHandler(Consumer<Exception> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    // Lists rows from another source, e.g. search results instead of the inbox
+    public void setSource(HeaderSource source) {
+        this.source = source;
+        reload();
+    }
+
+    // Drops every loaded row, including local ones, and re-reads the folder size
+    public void reload() {
+        generation++;
+        cancelPending();
+        blocks.clear();
+        blockStarts.clear();
+        snapshot = null;
+        localRows.clear();
+        remoteCount = 0;
+        fireTableDataChanged();
+
+        if (source != null) {
+            new CountLoader(generation).execute();
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return remoteCount + localRows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        DatabaseHelper.EmailHeader header = getHeader(row);
+        if (header == null) {
+            return column == 1 ? "Loading..." : null;
+        }
+        switch (column) {
+            case 0: return header.fromUser;
+            case 1: return header.subject;
+            case 2: return header.sentDate.format(DATE_FORMAT);
+            default: return statusOf(header);
+        }
+    }
+
+    /**
+     * The row's header, or null while its block is still being fetched (the fetch is started
+     * here if need be). Local rows have id 0, since they are not in the database.
+     */
+    public DatabaseHelper.EmailHeader getHeader(int row) {
+        if (row >= remoteCount) {
+            return localRows.get(row - remoteCount);
+        }
+        if (snapshot != null) {
+            return snapshot[row];
+        }
+        int block = row / blockSize;
+        DatabaseHelper.EmailHeader[] rows = blocks.get(block);
+        if (rows == null) {
+            requestBlock(block);
+            return null;
+        }
+        int index = row % blockSize;
+        return index < rows.length ? rows[index] : null;  // short block: the folder shrank since it was counted
+    }
+
+    public void setRead(int row, boolean read) {
+        DatabaseHelper.EmailHeader header = getHeader(row);
+        if (header == null || header.isRead == read) {
+            return;
+        }
+        if (row >= remoteCount) {
+            localRows.set(row - remoteCount, header.withRead(read));
+        } else if (snapshot != null) {
+            snapshot[row] = header.withRead(read);
+        } else {
+            blocks.get(row / blockSize)[row % blockSize] = header.withRead(read);
+        }
+        fireTableRowsUpdated(row, row);
+    }
+
+    public void addLocalRow(DatabaseHelper.EmailHeader header) {
+        localRows.add(header);
+        int row = getRowCount() - 1;
+        fireTableRowsInserted(row, row);
+    }
+
+    // Rows in ascending order. Removing folder rows shifts every later block, so that reloads.
+    public void removeRows(int[] rows) {
+        for (int row : rows) {
+            if (row < remoteCount) {
+                reload();
+                return;
+            }
+        }
+        for (int i = rows.length - 1; i >= 0; i--) {
+            localRows.remove(rows[i] - remoteCount);
+            fireTableRowsDeleted(rows[i], rows[i]);
+        }
+    }
+
+    public DatabaseHelper.SortKey getSort() {
+        return sort;
+    }
+
+    /**
+     * Orders the listing by the given key. If every folder row is already loaded they are
+     * sorted in memory and kept as a snapshot until the next reload; otherwise the folder is
+     * re-read from the server in the new order. Local rows are sorted in memory either way.
+     */
+    public void sortBy(DatabaseHelper.SortKey sort) {
+        this.sort = sort;
+        List<DatabaseHelper.EmailHeader> sortedLocal = sorted(localRows, sort);
+        localRows.clear();
+        localRows.addAll(sortedLocal);
+
+        if (remoteCount == 0) {
+            // No folder rows yet (or the count is still loading, and must not be dropped); blocks
+            // requested from now on are read in the new order
+            fireTableDataChanged();
+            return;
+        }
+        List<DatabaseHelper.EmailHeader> remote = loadedRemoteRows();
+        generation++;
+        cancelPending();
+        blocks.clear();
+        blockStarts.clear();
+        if (remote != null) {
+            snapshot = sorted(remote, sort).toArray(new DatabaseHelper.EmailHeader[0]);
+        } else {
+            // The count stays; the blocks are fetched again, in the new order, as they are shown
+            snapshot = null;
+        }
+        fireTableDataChanged();  // One event for the whole table, however many rows moved
+    }
+
+    // Every folder row if all of them are in memory, otherwise null
+    private List<DatabaseHelper.EmailHeader> loadedRemoteRows() {
+        if (snapshot != null) {
+            return Arrays.asList(snapshot);
+        }
+        List<DatabaseHelper.EmailHeader> all = new ArrayList<>(remoteCount);
+        for (int block = 0; block * blockSize < remoteCount; block++) {
+            DatabaseHelper.EmailHeader[] rows = blocks.get(block);
+            if (rows == null) {
+                return null;
+            }
+            all.addAll(Arrays.asList(rows));
+        }
+        return all.size() == remoteCount ? all : null;
+    }
+
+    // Same order as the server's ORDER BY for the key, up to collation differences in strings
+    private static List<DatabaseHelper.EmailHeader> sorted(List<DatabaseHelper.EmailHeader> rows,
+                                                           DatabaseHelper.SortKey sort) {
+        if (sort != DatabaseHelper.SortKey.DATE) {
+            List<DatabaseHelper.EmailHeader> result = new ArrayList<>(rows);
+            Comparator<DatabaseHelper.EmailHeader> order = sort == DatabaseHelper.SortKey.SENDER
+                ? Comparator.comparing((DatabaseHelper.EmailHeader h) -> h.fromUser)
+                : Comparator.comparing((DatabaseHelper.EmailHeader h) -> h.subject);
+            result.sort(order.thenComparingInt(h -> -h.id));
+            return result;
+        }
+
+        // Newest first: pack (epoch second, position) into one long and sort the primitives,
+        // so there are no comparator calls and no per-row objects for the bulk of the work
+        long[] keys = new long[rows.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = epochSecond(rows.get(i)) << 32 | (0xFFFFFFFFL - i);
+        }
+        Arrays.sort(keys);
+        List<DatabaseHelper.EmailHeader> result = new ArrayList<>(keys.length);
+        for (int i = keys.length - 1; i >= 0; i--) {
+            result.add(rows.get((int) (0xFFFFFFFFL - (keys[i] & 0xFFFFFFFFL))));
+        }
+
+        // Rows within the same second are few; order them like sent_date DESC, email_id DESC
+        for (int start = 0; start < result.size(); ) {
+            int end = start + 1;
+            long second = epochSecond(result.get(start));
+            while (end < result.size() && epochSecond(result.get(end)) == second) {
+                end++;
+            }
+            if (end - start > 1) {
+                result.subList(start, end).sort(DATE_TIES);
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    private static final Comparator<DatabaseHelper.EmailHeader> DATE_TIES =
+        Comparator.comparing((DatabaseHelper.EmailHeader h) -> h.sentDate).reversed()
+                  .thenComparing(Comparator.comparingInt((DatabaseHelper.EmailHeader h) -> h.id).reversed());
+
+    private static long epochSecond(DatabaseHelper.EmailHeader header) {
+        return Math.max(0, header.sentDate.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    public int getLoadedBlockCount() {
+        return blocks.size();
+    }
+
+    private String statusOf(DatabaseHelper.EmailHeader header) {
+        if ("DRAFT".equals(header.status)) {
+            return "Draft";
+        }
+        if (header.fromUser.equals(username) && !header.toUser.equals(username)) {
+            return "Sent";
+        }
+        return header.isRead ? "Read" : "Unread";
+    }
+
+    private void cancelPending() {
+        for (BlockLoader loader : pending.values()) {
+            loader.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private void requestBlock(int block) {
+        if (pending.containsKey(block)) {
+            return;
+        }
+        // Fast scrolling requests blocks faster than they load; the oldest ones are off screen by now
+        if (pending.size() >= maxBlocks) {
+            Iterator<BlockLoader> oldest = pending.values().iterator();
+            oldest.next().cancel(true);
+            oldest.remove();
+        }
+        boolean startKnown = block == 0 || blockStarts.containsKey(block);
+        BlockLoader loader = new BlockLoader(block, generation, sort, startKnown, blockStarts.get(block));
+        pending.put(block, loader);
+        loader.execute();
+    }
+
+    private class CountLoader extends SwingWorker<Integer, Void> {
+        private final int loadGeneration;
+        private final HeaderSource loadSource = source;  // captured on the EDT; setSource may swap it
+
+        CountLoader(int loadGeneration) {
+            this.loadGeneration = loadGeneration;
+        }
+
+        @Override
+        protected Integer doInBackground() throws SQLException {
+            return loadSource.count();
+        }
+
+        @Override
+        protected void done() {
+            if (loadGeneration != generation) {
+                return;
+            }
+            try {
+                remoteCount = get();
+                if (remoteCount > 0) {
+                    fireTableRowsInserted(0, remoteCount - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                errorHandler.accept((Exception) e.getCause());
+            }
+        }
+    }
+
+    private class BlockLoader extends SwingWorker<DatabaseHelper.Page<DatabaseHelper.EmailHeader>, Void> {
+        private final int block;
+        private final int loadGeneration;
+        private final DatabaseHelper.SortKey loadSort;
+        private final boolean startKnown;
+        private final DatabaseHelper.PageCursor start;
+        private final HeaderSource loadSource = source;  // captured on the EDT; setSource may swap it
+
+        BlockLoader(int block, int loadGeneration, DatabaseHelper.SortKey loadSort, boolean startKnown,
+                    DatabaseHelper.PageCursor start) {
+            this.block = block;
+            this.loadGeneration = loadGeneration;
+            this.loadSort = loadSort;
+            this.startKnown = startKnown;
+            this.start = start;
+        }
+
+        @Override
+        protected DatabaseHelper.Page<DatabaseHelper.EmailHeader> doInBackground() throws SQLException {
+            DatabaseHelper.PageCursor after = startKnown ? start : loadSource.cursorAt(loadSort, block * blockSize);
+            if (!startKnown && after == null) {
+                return new DatabaseHelper.Page<>(new ArrayList<>(), null);
+            }
+            return loadSource.page(loadSort, after, blockSize);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || loadGeneration != generation) {
+                return;
+            }
+            pending.remove(block, this);
+            try {
+                DatabaseHelper.Page<DatabaseHelper.EmailHeader> page = get();
+                blocks.put(block, page.items.toArray(new DatabaseHelper.EmailHeader[0]));
+                if (page.nextCursor != null) {
+                    blockStarts.put(block + 1, page.nextCursor);
+                }
+                int first = block * blockSize;
+                int last = Math.min(first + blockSize, remoteCount) - 1;
+                if (first <= last) {
+                    fireTableRowsUpdated(first, last);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                errorHandler.accept((Exception) e.getCause());
+            }
+        }
+    }
+}
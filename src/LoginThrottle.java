@@ -0,0 +1,240 @@
+// LoginThrottle.java
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sliding-window limits on login attempts, per username and per client (IP address, device
+ * id, ...). Each key is a single AtomicLong packing the window index with the attempt counts
+ * of the current and previous windows; the sliding count is the current count plus the
+ * previous one weighted by how much of it still overlaps the window. Attempts are counted
+ * when they are admitted, so a burst is turned away before any password hashing.
+ *
+ * An account whose count reaches the limit on a failed attempt is locked for a fixed time.
+ * With a DatabaseHelper, failures, locks and successful logins are recorded in the users
+ * table, and unexpired locks are reloaded by restore().
+ */
+public class LoginThrottle {
+    public static class Settings {
+        public int maxAttemptsPerUser = 5;
+        public long userWindowMillis = 15 * 60 * 1000;
+        public long lockMillis = 15 * 60 * 1000;
+        // Covers credential stuffing, where each username is only tried once or twice
+        public int maxAttemptsPerClient = 20;
+        public long clientWindowMillis = 60 * 1000;
+    }
+
+    // Packed window state: index in the high 32 bits, previous count, then current count
+    private static final int COUNT_BITS = 16;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+    private static final int PURGE_INTERVAL = 4096;
+
+    private final DatabaseHelper db;  // null keeps the state in memory only
+    private final Settings settings;
+    private final Map<String, AtomicLong> userWindows = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> clientWindows = new ConcurrentHashMap<>();
+    private final Map<String, Long> lockedUntil = new ConcurrentHashMap<>();  // username -> epoch millis
+    private final AtomicInteger admissions = new AtomicInteger();
+
+    public LoginThrottle() {
+        this(null, new Settings());
+    }
+
+    public LoginThrottle(DatabaseHelper db) {
+        this(db, new Settings());
+    }
+
+    public LoginThrottle(DatabaseHelper db, Settings settings) {
+        this.db = db;
+        this.settings = settings;
+    }
+
+    public void restore() throws SQLException {
+        if (db == null) {
+            return;
+        }
+        for (Map.Entry<String, LocalDateTime> lock : db.getLockedAccounts().entrySet()) {
+            lockedUntil.put(lock.getKey(), lock.getValue().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+    }
+
+    public boolean isLocked(String username) {
+        Long until = lockedUntil.get(username);
+        if (until == null) {
+            return false;
+        }
+        if (until <= System.currentTimeMillis()) {
+            lockedUntil.remove(username, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts an attempt against both keys and returns true, or returns false without counting
+     * when either is over its limit. A null username or client skips that key.
+     */
+    public boolean tryAcquire(String username, String clientId) {
+        long now = System.currentTimeMillis();
+        if (username != null && isLocked(username)) {
+            return false;
+        }
+        AtomicLong client = null;
+        if (clientId != null) {
+            client = tryIncrement(clientWindows, clientId, now, settings.clientWindowMillis, settings.maxAttemptsPerClient);
+            if (client == null) {
+                return false;
+            }
+        }
+        if (username != null
+                && tryIncrement(userWindows, username, now, settings.userWindowMillis, settings.maxAttemptsPerUser) == null) {
+            // Turned away after all, so the client's count is taken back
+            if (client != null) {
+                release(client, windowIndex(now, settings.clientWindowMillis));
+            }
+            return false;
+        }
+        if (admissions.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purgeIdle(now);
+        }
+        return true;
+    }
+
+    // Returns how many more attempts the account has before it locks; 0 means it just locked
+    public int recordFailure(String username) {
+        long now = System.currentTimeMillis();
+        AtomicLong user = userWindows.get(username);
+        double attempts = user == null ? 0 : estimate(user, now, settings.userWindowMillis);
+        int remaining = Math.max(0, settings.maxAttemptsPerUser - (int) Math.ceil(attempts));
+
+        Long lock = null;
+        if (remaining == 0) {
+            lock = now + settings.lockMillis;
+            lockedUntil.put(username, lock);
+        }
+        if (db != null) {
+            try {
+                db.recordLoginFailure(username, lock == null ? null
+                    : LocalDateTime.ofInstant(Instant.ofEpochMilli(lock), ZoneId.systemDefault()));
+            } catch (SQLException e) {
+                // The in-memory lock still applies; only a restart could lift it early
+                System.err.println("Failed to record login failure: " + e.getMessage());
+            }
+        }
+        return remaining;
+    }
+
+    public void recordSuccess(String username) {
+        userWindows.remove(username);
+        lockedUntil.remove(username);
+        if (db != null) {
+            try {
+                db.recordLoginSuccess(username);
+            } catch (SQLException e) {
+                System.err.println("Failed to record login: " + e.getMessage());
+            }
+        }
+    }
+
+    // The index is truncated to the 32 bits it is packed into. It is only ever compared with the
+    // current and previous index, so wrapping (which 1 ms windows reach) does no harm
+    private static long windowIndex(long now, long windowMillis) {
+        return (now / windowMillis) & INDEX_MASK;
+    }
+
+    // The packed state moved forward to window index: the counts shift or clear as windows pass
+    private static long rolled(long state, long index) {
+        long stateIndex = state >>> 32;
+        long previous = (state >>> COUNT_BITS) & COUNT_MASK;
+        long current = state & COUNT_MASK;
+        if (stateIndex == ((index - 1) & INDEX_MASK)) {
+            previous = current;
+            current = 0;
+        } else if (stateIndex != index) {
+            previous = 0;
+            current = 0;
+        }
+        return index << 32 | previous << COUNT_BITS | current;
+    }
+
+    private static double estimate(AtomicLong window, long now, long windowMillis) {
+        return estimate(rolled(window.get(), windowIndex(now, windowMillis)), now, windowMillis);
+    }
+
+    private static double estimate(long rolled, long now, long windowMillis) {
+        long previous = (rolled >>> COUNT_BITS) & COUNT_MASK;
+        long current = rolled & COUNT_MASK;
+        double overlap = 1.0 - (double) (now % windowMillis) / windowMillis;
+        return current + previous * overlap;
+    }
+
+    // Counts the attempt in the key's window and returns that window, or null if it is over the
+    // limit. purgeIdle() may drop an idle window just as the count goes in; the count is then
+    // lost with it, so it is made again in the window the key maps to now.
+    private static AtomicLong tryIncrement(Map<String, AtomicLong> windows, String key, long now,
+                                           long windowMillis, int limit) {
+        while (true) {
+            AtomicLong window = windows.computeIfAbsent(key, k -> new AtomicLong());
+            if (!tryIncrement(window, now, windowMillis, limit)) {
+                return null;
+            }
+            if (windows.get(key) == window) {
+                return window;
+            }
+        }
+    }
+
+    // Checks the limit and counts the attempt in one CAS, so concurrent attempts cannot overshoot it
+    private static boolean tryIncrement(AtomicLong window, long now, long windowMillis, int limit) {
+        long index = windowIndex(now, windowMillis);
+        while (true) {
+            long state = window.get();
+            long rolled = rolled(state, index);
+            if (estimate(rolled, now, windowMillis) >= limit) {
+                return false;
+            }
+            long next = (rolled & COUNT_MASK) == COUNT_MASK ? rolled : rolled + 1;
+            if (window.compareAndSet(state, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Takes back an attempt counted in window index, wherever it has rolled to since
+    private static void release(AtomicLong window, long index) {
+        while (true) {
+            long state = window.get();
+            long next;
+            if ((state >>> 32) == index && (state & COUNT_MASK) > 0) {
+                next = state - 1;
+            } else if ((state >>> 32) == ((index + 1) & INDEX_MASK) && ((state >>> COUNT_BITS) & COUNT_MASK) > 0) {
+                next = state - (1L << COUNT_BITS);
+            } else {
+                return;
+            }
+            if (window.compareAndSet(state, next)) {
+                return;
+            }
+        }
+    }
+
+    // Keys with nothing in the current or previous window carry no information. Each is removed
+    // by key, and only if still idle, so a window that just took a count is kept
+    private void purgeIdle(long now) {
+        purgeIdle(userWindows, windowIndex(now, settings.userWindowMillis));
+        purgeIdle(clientWindows, windowIndex(now, settings.clientWindowMillis));
+        lockedUntil.values().removeIf(until -> until <= now);
+    }
+
+    private static void purgeIdle(Map<String, AtomicLong> windows, long index) {
+        for (String key : windows.keySet()) {
+            windows.computeIfPresent(key, (k, window) -> rolled(window.get(), index) == index << 32 ? null : window);
+        }
+    }
+}
@@ -0,0 +1,726 @@
+// MailboxIndex.java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process inverted index over one user's subjects and bodies, for search-as-you-type
+ * without a database round trip per keystroke. Each term maps to a sorted int[] of email
+ * ids; a forward map of id -> terms lets deletes and edits remove exactly the postings they
+ * added. Terms live in a TreeMap so the last word of a query can match as a prefix.
+ *
+ * Registered as a MailboxListener it follows sends, draft edits and deletes as they commit.
+ * save() writes a compact snapshot (a sorted term directory over delta-encoded varint
+ * postings) to a new generation file. load() maps it and queries read the postings
+ * straight from the mapping, so startup neither rebuilds from the database nor copies the
+ * index onto the heap. Only later changes live on the heap: new and edited messages in the
+ * in-memory maps, and snapshot messages since removed or edited in a set of replaced ids.
+ * The next save() folds both into a new snapshot.
+ */
+public class MailboxIndex implements MailboxListener {
+    private static final int MAGIC = 0x4D424958;  // "MBIX"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;  // magic, version, term count, doc count, directory and docs offsets
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int[] NO_IDS = new int[0];
+
+    // Ascending email ids; ids are assigned in order, so adds are nearly always appends
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                int at = Arrays.binarySearch(ids, 0, size, id);
+                if (at >= 0) {
+                    return;
+                }
+                insertAt(-at - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        private void insertAt(int index, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                size--;
+            }
+        }
+    }
+
+    /**
+     * A snapshot written by save(), read in place. Terms are sorted by their UTF-8 bytes and
+     * found by binary search over a directory of fixed-width (term offset, postings offset)
+     * entries; the ids of every indexed message follow as a sorted int array. Only absolute
+     * gets are used, so concurrent readers can share the buffer.
+     */
+    private static final class Segment {
+        final ByteBuffer buffer;
+        final int termCount;
+        final int docCount;
+        final int directory;
+        final int docs;
+
+        Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.termCount = buffer.getInt(8);
+            this.docCount = buffer.getInt(12);
+            this.directory = buffer.getInt(16);
+            this.docs = buffer.getInt(20);
+        }
+
+        int termOffset(int index) {
+            return buffer.getInt(directory + index * 8);
+        }
+
+        int postingsOffset(int index) {
+            return buffer.getInt(directory + index * 8 + 4);
+        }
+
+        // The index-th term against key, as unsigned bytes; with prefixOnly, a longer term that
+        // starts with key compares equal
+        int compare(int index, byte[] key, boolean prefixOnly) {
+            int[] position = {termOffset(index)};
+            int length = getVarint(buffer, position);
+            int start = position[0];
+            for (int i = 0; i < Math.min(length, key.length); i++) {
+                int c = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return prefixOnly && length >= key.length ? 0 : Integer.compare(length, key.length);
+        }
+
+        // First term not less than key
+        int lowerBound(byte[] key) {
+            int low = 0;
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, key, false) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        int find(byte[] key) {
+            int index = lowerBound(key);
+            return index < termCount && compare(index, key, false) == 0 ? index : -1;
+        }
+
+        String term(int index) {
+            int[] position = {termOffset(index)};
+            int length = getVarint(buffer, position);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(position[0] + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int[] postings(int index) {
+            int[] position = {postingsOffset(index)};
+            int[] ids = new int[getVarint(buffer, position)];
+            int id = 0;
+            for (int i = 0; i < ids.length; i++) {
+                id += getVarint(buffer, position);
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        int document(int index) {
+            return buffer.getInt(docs + index * 4);
+        }
+
+        boolean containsDocument(int id) {
+            int low = 0;
+            int high = docCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int value = document(mid);
+                if (value < id) {
+                    low = mid + 1;
+                } else if (value > id) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final String username;
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<Integer, String[]> documents = new HashMap<>();  // email id -> its distinct terms
+    private Segment segment;  // the loaded snapshot, or null
+    private final Set<Integer> replaced = new HashSet<>();  // snapshot messages since removed or edited
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public MailboxIndex(String username) {
+        this.username = username;
+    }
+
+    // Indexes everything the user sent or received, one cursor page at a time
+    public void rebuild(DatabaseHelper db) throws SQLException {
+        clear();
+        db.forEachEmail(username, 500, this::add);
+    }
+
+    /**
+     * Adds the messages newer than any indexed one, such as mail that arrived while the
+     * snapshot sat on disk. Deletes and draft edits made meanwhile by other clients are not
+     * seen: deleted messages still drop out of listings, which re-read headers from the
+     * database, but an edited draft keeps its old terms until rebuild().
+     */
+    public void catchUp(DatabaseHelper db) throws SQLException {
+        int lastId;
+        lock.readLock().lock();
+        try {
+            lastId = segment == null || segment.docCount == 0 ? 0 : segment.document(segment.docCount - 1);
+            for (int id : documents.keySet()) {
+                lastId = Math.max(lastId, id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        db.forEachEmail(username, lastId, 500, this::add);
+    }
+
+    public void add(DatabaseHelper.Email email) {
+        if ("DELETED".equals(email.status)
+                || !(username.equals(email.fromUser) || username.equals(email.toUser))) {
+            return;
+        }
+        Set<String> unique = new LinkedHashSet<>();
+        tokenize(email.subject, unique);
+        tokenize(email.getContent(), unique);
+        String[] emailTerms = unique.toArray(new String[0]);
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(email.id);
+            for (String term : emailTerms) {
+                terms.computeIfAbsent(term, t -> new Postings()).add(email.id);
+            }
+            documents.put(email.id, emailTerms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int emailId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(emailId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(int emailId) {
+        if (segment != null && segment.containsDocument(emailId)) {
+            replaced.add(emailId);
+        }
+        String[] emailTerms = documents.remove(emailId);
+        if (emailTerms == null) {
+            return;
+        }
+        for (String term : emailTerms) {
+            Postings postings = terms.get(term);
+            if (postings != null) {
+                postings.remove(emailId);
+                if (postings.size == 0) {
+                    terms.remove(term);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void emailAdded(DatabaseHelper.Email email) {
+        add(email);
+    }
+
+    @Override
+    public void draftUpdated(DatabaseHelper.Email draft) {
+        add(draft);
+    }
+
+    @Override
+    public void emailsDeleted(int[] emailIds, Set<String> affectedUsers) {
+        lock.writeLock().lock();
+        try {
+            for (int id : emailIds) {
+                removeLocked(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the messages containing every word of the query, newest (highest id) first. The
+     * last word also matches as a prefix, so partial input finds results while typing.
+     */
+    public int[] search(String query, int limit) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(tokenizeToList(query)));
+        if (words.isEmpty()) {
+            return new int[0];
+        }
+
+        lock.readLock().lock();
+        try {
+            List<int[]> lists = new ArrayList<>(words.size());
+            for (int i = 0; i < words.size() - 1; i++) {
+                int[] ids = termIdsLocked(words.get(i));
+                if (ids.length == 0) {
+                    return NO_IDS;
+                }
+                lists.add(ids);
+            }
+            int[] prefixMatches = prefixIdsLocked(words.get(words.size() - 1));
+            if (prefixMatches.length == 0) {
+                return NO_IDS;
+            }
+            lists.add(prefixMatches);
+            return intersectNewestFirst(lists, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The term's snapshot postings, less replaced messages, merged with its in-memory postings
+    private int[] termIdsLocked(String term) {
+        List<int[]> parts = new ArrayList<>(2);
+        if (segment != null) {
+            int index = segment.find(term.getBytes(StandardCharsets.UTF_8));
+            if (index >= 0) {
+                parts.add(live(segment.postings(index)));
+            }
+        }
+        Postings postings = terms.get(term);
+        if (postings != null) {
+            parts.add(Arrays.copyOf(postings.ids, postings.size));
+        }
+        return union(parts);
+    }
+
+    // Merged, duplicate-free ids of every term starting with the prefix
+    private int[] prefixIdsLocked(String prefix) {
+        List<int[]> parts = new ArrayList<>();
+        if (segment != null) {
+            byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+            for (int i = segment.lowerBound(key); i < segment.termCount && segment.compare(i, key, true) == 0; i++) {
+                parts.add(live(segment.postings(i)));
+            }
+        }
+        for (Postings postings : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            parts.add(Arrays.copyOf(postings.ids, postings.size));
+        }
+        return union(parts);
+    }
+
+    private int[] live(int[] ids) {
+        if (replaced.isEmpty()) {
+            return ids;
+        }
+        int n = 0;
+        int[] result = new int[ids.length];
+        for (int id : ids) {
+            if (!replaced.contains(id)) {
+                result[n++] = id;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(List<int[]> parts) {
+        if (parts.isEmpty()) {
+            return NO_IDS;
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int total = 0;
+        for (int[] part : parts) {
+            total += part.length;
+        }
+        int[] merged = new int[total];
+        int n = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, merged, n, part.length);
+            n += part.length;
+        }
+        Arrays.sort(merged);
+        int unique = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (i == 0 || merged[i] != merged[i - 1]) {
+                merged[unique++] = merged[i];
+            }
+        }
+        return Arrays.copyOf(merged, unique);
+    }
+
+    // Walks the shortest list from the top and binary-searches the others
+    private static int[] intersectNewestFirst(List<int[]> lists, int limit) {
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] shortest = lists.get(0);
+        int[] result = new int[Math.min(limit, shortest.length)];
+        int n = 0;
+        for (int i = shortest.length - 1; i >= 0 && n < result.length; i--) {
+            int id = shortest[i];
+            boolean inAll = true;
+            for (int j = 1; j < lists.size() && inAll; j++) {
+                inAll = Arrays.binarySearch(lists.get(j), id) >= 0;
+            }
+            if (inAll) {
+                result[n++] = id;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return (segment == null ? 0 : segment.docCount - replaced.size()) + documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Distinct terms. A snapshot term whose messages were all removed since load() still counts
+    // until the next save()
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            if (segment == null) {
+                return terms.size();
+            }
+            int count = segment.termCount;
+            for (String term : terms.keySet()) {
+                if (segment.find(term.getBytes(StandardCharsets.UTF_8)) < 0) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            terms.clear();
+            documents.clear();
+            segment = null;
+            replaced.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Snapshot layout: a fixed header (magic, version, term count, document count, directory
+     * offset, documents offset), the username, then per term its UTF-8 bytes and its postings
+     * as a count followed by varint gaps, then the term directory and the document ids.
+     *
+     * file itself is a small pointer naming the current snapshot, "<file>.<generation>". A
+     * mapped file cannot be replaced or deleted on Windows, and load() keeps its snapshot
+     * mapped, so each save writes the next generation and then repoints file by a rename over
+     * the old pointer, which is never mapped. A crash mid-save therefore leaves the previous
+     * snapshot in use. Older generations are deleted where the platform allows; one still
+     * mapped (Windows) stays until a save in a later session removes it.
+     */
+    public void save(Path file) throws IOException {
+        ByteBuffer out;
+        lock.readLock().lock();
+        try {
+            // Every term with its live ids, from the snapshot and from memory
+            Map<String, int[]> merged = new HashMap<>();
+            if (segment != null) {
+                for (int i = 0; i < segment.termCount; i++) {
+                    int[] ids = live(segment.postings(i));
+                    if (ids.length > 0) {
+                        merged.put(segment.term(i), ids);
+                    }
+                }
+            }
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Postings postings = entry.getValue();
+                int[] ids = Arrays.copyOf(postings.ids, postings.size);
+                int[] existing = merged.get(entry.getKey());
+                merged.put(entry.getKey(), existing == null ? ids : union(Arrays.asList(existing, ids)));
+            }
+            List<byte[]> sortedTerms = new ArrayList<>(merged.size());
+            for (String term : merged.keySet()) {
+                sortedTerms.add(term.getBytes(StandardCharsets.UTF_8));
+            }
+            sortedTerms.sort(Arrays::compareUnsigned);
+
+            List<int[]> docParts = new ArrayList<>(2);
+            if (segment != null) {
+                int[] snapshotDocs = new int[segment.docCount];
+                for (int i = 0; i < snapshotDocs.length; i++) {
+                    snapshotDocs[i] = segment.document(i);
+                }
+                docParts.add(live(snapshotDocs));
+            }
+            int[] memoryDocs = documents.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            docParts.add(memoryDocs);
+            int[] docIds = union(docParts);
+
+            out = ByteBuffer.allocate(1024);
+            out.position(HEADER_BYTES);
+            out = putBytes(out, username.getBytes(StandardCharsets.UTF_8));
+            int[] termOffsets = new int[sortedTerms.size()];
+            int[] postingsOffsets = new int[sortedTerms.size()];
+            for (int t = 0; t < sortedTerms.size(); t++) {
+                byte[] term = sortedTerms.get(t);
+                int[] ids = merged.get(new String(term, StandardCharsets.UTF_8));
+                termOffsets[t] = out.position();
+                out = putBytes(out, term);
+                out = ensure(out, 5 + ids.length * 5);
+                postingsOffsets[t] = out.position();
+                putVarint(out, ids.length);
+                int previous = 0;
+                for (int id : ids) {
+                    putVarint(out, id - previous);
+                    previous = id;
+                }
+            }
+            int directory = out.position();
+            out = ensure(out, sortedTerms.size() * 8 + docIds.length * 4);
+            for (int t = 0; t < sortedTerms.size(); t++) {
+                out.putInt(termOffsets[t]).putInt(postingsOffsets[t]);
+            }
+            int docs = out.position();
+            for (int id : docIds) {
+                out.putInt(id);
+            }
+            out.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, sortedTerms.size()).putInt(12, docIds.length)
+               .putInt(16, directory).putInt(20, docs);
+        } finally {
+            lock.readLock().unlock();
+        }
+        out.flip();
+
+        String prefix = file.getFileName() + ".";
+        long generation = 0;
+        List<Path> older = new ArrayList<>();
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(file.toAbsolutePath().getParent(), prefix + "*")) {
+            for (Path sibling : siblings) {
+                long n = generationOf(sibling.getFileName().toString(), prefix);
+                if (n >= 0) {
+                    generation = Math.max(generation, n);
+                    older.add(sibling);
+                }
+            }
+        }
+
+        Path snapshot = file.resolveSibling(prefix + (generation + 1));
+        writeFully(snapshot, out);
+        Path temp = file.resolveSibling(prefix + "tmp");
+        writeFully(temp, ByteBuffer.wrap(snapshot.getFileName().toString().getBytes(StandardCharsets.UTF_8)));
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        for (Path old : older) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                // Still mapped on a platform that forbids deleting it; a later save retries
+            }
+        }
+    }
+
+    private static void writeFully(Path path, ByteBuffer data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+    }
+
+    // The generation in a snapshot file name, or -1 if the name is not one
+    private static long generationOf(String name, String prefix) {
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        String suffix = name.substring(prefix.length());
+        if (suffix.isEmpty() || suffix.length() > 18 || !suffix.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            return -1;
+        }
+        return Long.parseLong(suffix);
+    }
+
+    /**
+     * Replaces the index with the snapshot file points to (see save()), mapped rather than
+     * read: only the header and directory are checked here, postings are decoded as queries
+     * touch them. The mapping is held until the index is cleared or loaded again. Returns
+     * false, leaving the index empty, if either file is missing, malformed or belongs to
+     * another user; rebuild() then.
+     */
+    public boolean load(Path file) throws IOException {
+        clear();
+        if (!Files.exists(file)) {
+            return false;
+        }
+        String current = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        Path snapshot = file.resolveSibling(current);
+        if (generationOf(current, file.getFileName() + ".") < 0 || !Files.exists(snapshot)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+                return false;
+            }
+            int[] position = {HEADER_BYTES};
+            int nameLength = getVarint(in, position);
+            byte[] name = new byte[Math.max(0, Math.min(nameLength, (int) size - position[0]))];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = in.get(position[0] + i);
+            }
+            if (name.length != nameLength || !username.equals(new String(name, StandardCharsets.UTF_8))) {
+                return false;
+            }
+
+            Segment loaded = new Segment(in);
+            if (loaded.termCount < 0 || loaded.docCount < 0 || loaded.directory < HEADER_BYTES
+                    || (long) loaded.directory + loaded.termCount * 8L > size
+                    || loaded.docs < loaded.directory || (long) loaded.docs + loaded.docCount * 4L > size) {
+                return false;
+            }
+            for (int i = 0; i < loaded.termCount; i++) {
+                if (loaded.termOffset(i) < HEADER_BYTES || loaded.termOffset(i) >= loaded.directory
+                        || loaded.postingsOffset(i) < HEADER_BYTES || loaded.postingsOffset(i) >= loaded.directory) {
+                    return false;
+                }
+            }
+
+            lock.writeLock().lock();
+            try {
+                segment = loaded;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // Truncated or corrupt snapshot
+            clear();
+            return false;
+        }
+    }
+
+    private static void tokenize(String text, Set<String> out) {
+        out.addAll(tokenizeToList(text));
+    }
+
+    // Lower-cased runs of letters and digits
+    private static List<String> tokenizeToList(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    private static ByteBuffer putBytes(ByteBuffer buffer, byte[] bytes) {
+        ByteBuffer out = ensure(buffer, 5 + bytes.length);
+        putVarint(out, bytes.length);
+        return out.put(bytes);
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // Absolute read at position[0], which is advanced past the varint
+    private static int getVarint(ByteBuffer in, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+}
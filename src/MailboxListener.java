@@ -0,0 +1,23 @@
+// MailboxListener.java
+import java.util.Set;
+
+/**
+ * Notified by DatabaseHelper after a change to the emails table has been committed. Calls
+ * arrive on the thread that made the change; a listener that throws is logged and skipped.
+ */
+public interface MailboxListener {
+    // A message was sent (once per recipient) or a draft was saved
+    default void emailAdded(DatabaseHelper.Email email) {
+    }
+
+    default void draftUpdated(DatabaseHelper.Email draft) {
+    }
+
+    // affectedUsers are the senders and recipients of the deleted rows
+    default void emailsDeleted(int[] emailIds, Set<String> affectedUsers) {
+    }
+
+    // The recipient marked these messages read or unread; ids that did not change may be included
+    default void readStateChanged(int[] emailIds, String username, boolean read) {
+    }
+}
@@ -0,0 +1,115 @@
+// MessageBody.java
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A message body as stored in email_bodies: UTF-8 bytes, deflated when the text is at least
+ * the threshold and compression actually helps. Bodies read from the database keep the stored
+ * bytes and are only inflated the first time text() is called, so listings and exports carry
+ * the compressed form across the wire and on the heap until a message is displayed.
+ */
+public final class MessageBody {
+    public enum Codec {
+        PLAIN,
+        DEFLATE
+    }
+
+    public static final int DEFAULT_THRESHOLD = 1024;  // bytes of UTF-8; smaller bodies gain little
+
+    private final Codec codec;
+    private final byte[] stored;
+    private final int length;  // UTF-8 length of the text
+    private volatile String text;
+
+    private MessageBody(Codec codec, byte[] stored, int length, String text) {
+        this.codec = codec;
+        this.stored = stored;
+        this.length = length;
+        this.text = text;
+    }
+
+    public static MessageBody encode(String text, int threshold) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length >= threshold) {
+            byte[] deflated = deflate(utf8);
+            if (deflated.length < utf8.length) {
+                return new MessageBody(Codec.DEFLATE, deflated, utf8.length, text);
+            }
+        }
+        return new MessageBody(Codec.PLAIN, utf8, utf8.length, text);
+    }
+
+    // Wraps a stored body without decoding it
+    public static MessageBody stored(Codec codec, byte[] stored, int length) {
+        return new MessageBody(codec, stored, length, null);
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public byte[] getStoredBytes() {
+        return stored;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isDecoded() {
+        return text != null;
+    }
+
+    public String text() {
+        String decoded = text;
+        if (decoded == null) {
+            byte[] utf8 = codec == Codec.DEFLATE ? inflate(stored, length) : stored;
+            decoded = new String(utf8, StandardCharsets.UTF_8);
+            text = decoded;
+        }
+        return decoded;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] output = new byte[length];
+            int filled = 0;
+            while (filled < length && !inflater.finished()) {
+                int n = inflater.inflate(output, filled, length - filled);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += n;
+            }
+            if (filled != length) {
+                throw new IllegalStateException("Corrupt message body: expected " + length + " bytes, got " + filled);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt message body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
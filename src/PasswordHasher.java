@@ -0,0 +1,15 @@
+// PasswordHasher.java
+
+/**
+ * Turns passwords into self-describing encoded hashes and checks them. Encoded hashes record
+ * the algorithm and cost they were made with, so the cost can be raised later without
+ * invalidating existing accounts.
+ */
+public interface PasswordHasher {
+    String hash(String password);
+
+    boolean verify(String password, String encodedHash);
+
+    // True when the stored hash is weaker than what hash() produces today
+    boolean needsRehash(String encodedHash);
+}
@@ -0,0 +1,111 @@
+// Pbkdf2PasswordHasher.java
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 from the JDK. Hashes are encoded as
+ * {@code pbkdf2-sha256$<iterations>$<salt>$<hash>} with Base64 salt and hash.
+ * Unsalted single-pass SHA-256 hashes from before this format are still accepted by
+ * verify() and always report needsRehash().
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    // OWASP's current recommendation for PBKDF2-HMAC-SHA256
+    public static final int DEFAULT_ITERATIONS = 600_000;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public Pbkdf2PasswordHasher() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(String password, String encodedHash) {
+        if (encodedHash == null) {
+            return false;
+        }
+        if (isLegacy(encodedHash)) {
+            return MessageDigest.isEqual(legacyHash(password), encodedHash.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        String[] parts = encodedHash.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(pbkdf2(password, salt, storedIterations), expected);
+        } catch (IllegalArgumentException e) {
+            return false;  // Corrupt hash never matches
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String encodedHash) {
+        if (encodedHash == null || isLegacy(encodedHash)) {
+            return true;
+        }
+        String[] parts = encodedHash.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static boolean isLegacy(String encodedHash) {
+        return encodedHash.indexOf('$') < 0;
+    }
+
+    // The original UserManager scheme: unsalted SHA-256, Base64 encoded
+    private static byte[] legacyHash(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(password.getBytes());
+            return Base64.getEncoder().encodeToString(hash).getBytes(StandardCharsets.US_ASCII);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
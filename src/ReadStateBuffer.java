@@ -0,0 +1,118 @@
+// ReadStateBuffer.java
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for read/unread flips. Toggles are coalesced per (user, email id) in
+ * memory and written with the bulk markAsRead/markAsUnread calls on a timer, on flush(),
+ * and on close(). Until then isRead() answers from the buffer, so the UI sees its own writes.
+ */
+public class ReadStateBuffer implements AutoCloseable {
+    private final DatabaseHelper db;
+    private final Map<String, Map<Integer, Boolean>> pending = new ConcurrentHashMap<>();  // username -> (email id -> read)
+    private final ScheduledExecutorService flusher;
+
+    public ReadStateBuffer(DatabaseHelper db, long flushIntervalMillis) {
+        this.db = db;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "read-state-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (SQLException e) {
+                // Entries stay pending and are retried on the next tick
+                System.err.println("Failed to flush read state: " + e.getMessage());
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The put happens inside compute() so it cannot land in a map that flush() is dropping
+    public void setRead(String username, int emailId, boolean read) {
+        pending.compute(username, (u, userPending) -> {
+            if (userPending == null) {
+                userPending = new ConcurrentHashMap<>();
+            }
+            userPending.put(emailId, read);
+            return userPending;
+        });
+    }
+
+    // Buffered state if there is one, otherwise the value the caller loaded from the database
+    public boolean isRead(String username, int emailId, boolean storedValue) {
+        Map<Integer, Boolean> userPending = pending.get(username);
+        if (userPending == null) {
+            return storedValue;
+        }
+        return userPending.getOrDefault(emailId, storedValue);
+    }
+
+    public int getPendingCount() {
+        int count = 0;
+        for (Map<Integer, Boolean> userPending : pending.values()) {
+            count += userPending.size();
+        }
+        return count;
+    }
+
+    public synchronized void flush() throws SQLException {
+        for (String username : pending.keySet()) {
+            flush(username);
+        }
+    }
+
+    // Called on logout so one user's toggles are durable before their session ends
+    public synchronized void flush(String username) throws SQLException {
+        Map<Integer, Boolean> userPending = pending.get(username);
+        if (userPending == null) {
+            return;
+        }
+        if (userPending.isEmpty()) {
+            dropIfDrained(username);
+            return;
+        }
+
+        List<Map.Entry<Integer, Boolean>> snapshot = new ArrayList<>(userPending.entrySet());
+        List<Integer> readIds = new ArrayList<>();
+        List<Integer> unreadIds = new ArrayList<>();
+        for (Map.Entry<Integer, Boolean> entry : snapshot) {
+            (entry.getValue() ? readIds : unreadIds).add(entry.getKey());
+        }
+
+        db.markAsRead(toArray(readIds), username);
+        db.markAsUnread(toArray(unreadIds), username);
+
+        // Only drop entries that were not flipped again while the batch was being written
+        for (Map.Entry<Integer, Boolean> entry : snapshot) {
+            userPending.remove(entry.getKey(), entry.getValue());
+        }
+        dropIfDrained(username);
+    }
+
+    // Forget users with nothing pending, so the map only holds users with unwritten toggles
+    private void dropIfDrained(String username) {
+        pending.computeIfPresent(username, (u, userPending) -> userPending.isEmpty() ? null : userPending);
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        flusher.shutdown();
+        flush();
+    }
+}
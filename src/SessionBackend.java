@@ -0,0 +1,18 @@
+// SessionBackend.java
+import java.sql.SQLException;
+
+/**
+ * Where UserManager keeps login sessions. {@link SessionStore} holds them in an in-process
+ * cache (optionally written through to the sessions table); {@link SignedSessionTokens}
+ * encodes them in the token itself.
+ */
+public interface SessionBackend {
+    String create(String username) throws SQLException;
+
+    boolean validate(String token);
+
+    // Null when the token is unknown, expired or revoked
+    String getUsername(String token);
+
+    void invalidate(String token) throws SQLException;
+}
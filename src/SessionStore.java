@@ -0,0 +1,249 @@
+// SessionStore.java
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process session cache with a sliding TTL. Validation is a hash lookup plus a volatile
+ * write and never touches the database. Expiry is swept by a background thread walking a
+ * hashed timing wheel: each session sits in the slot for its expiry tick, and a session whose
+ * expiry slid forward since it was slotted is simply moved on when the sweeper reaches it.
+ *
+ * With a DatabaseHelper, creation and invalidation are written through to the sessions table
+ * synchronously, and sliding extensions are written in the background once the stored expiry
+ * falls more than half a TTL behind.
+ */
+public class SessionStore implements SessionBackend, AutoCloseable {
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(30);
+    private static final long DEFAULT_TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 512;
+
+    private static class Session {
+        final String token;
+        final String username;
+        volatile long expiresAt;       // epoch millis
+        volatile long persistedUntil;  // expiry last written to the sessions table
+        final AtomicBoolean extensionQueued = new AtomicBoolean();
+
+        Session(String token, String username, long expiresAt) {
+            this.token = token;
+            this.username = username;
+            this.expiresAt = expiresAt;
+            this.persistedUntil = expiresAt;
+        }
+    }
+
+    private final DatabaseHelper db;  // null for a purely in-memory store
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final LongSupplier clock;  // epoch millis
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();      // token -> session
+    private final Map<String, String> tokensByUser = new ConcurrentHashMap<>();   // username -> token, with a db only
+    private final Queue<Session>[] wheel;
+    private final Queue<Session> pendingExtensions = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService sweeper;
+    private long lastTick;  // sweeper thread only
+
+    public SessionStore() {
+        this(null, DEFAULT_TTL, DEFAULT_TICK_MILLIS);
+    }
+
+    public SessionStore(DatabaseHelper db) {
+        this(db, DEFAULT_TTL, DEFAULT_TICK_MILLIS);
+    }
+
+    public SessionStore(DatabaseHelper db, Duration ttl, long tickMillis) {
+        this(db, ttl, tickMillis, System::currentTimeMillis, true);
+    }
+
+    // With runSweeper false nothing sweeps on its own; tests call sweep() as they move the clock
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SessionStore(DatabaseHelper db, Duration ttl, long tickMillis, LongSupplier clock, boolean runSweeper) {
+        this.db = db;
+        this.ttlMillis = ttl.toMillis();
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.wheel = new Queue[WHEEL_SLOTS];
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.lastTick = clock.getAsLong() / tickMillis;
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        if (runSweeper) {
+            sweeper.scheduleAtFixedRate(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Loads the still-active sessions from the database, e.g. after a restart
+    public void restore() throws SQLException {
+        if (db == null) {
+            return;
+        }
+        for (DatabaseHelper.ActiveSession active : db.getActiveSessions()) {
+            Session session = new Session(active.token, active.username, toMillis(active.expiresAt));
+            sessions.put(session.token, session);
+            tokensByUser.put(session.username, session.token);
+            schedule(session, clock.getAsLong() / tickMillis);
+        }
+    }
+
+    @Override
+    public String create(String username) throws SQLException {
+        String token = UUID.randomUUID().toString();
+        long now = clock.getAsLong();
+        Session session = new Session(token, username, now + ttlMillis);
+
+        if (db != null) {
+            db.createSession(username, token, toDateTime(session.expiresAt));
+            // The sessions table keeps one active session per user; mirror that here
+            String previous = tokensByUser.put(username, token);
+            if (previous != null) {
+                sessions.remove(previous);
+            }
+        }
+        sessions.put(token, session);
+        schedule(session, now / tickMillis);
+        return token;
+    }
+
+    // Checking a session counts as activity and slides its expiry forward
+    @Override
+    public boolean validate(String token) {
+        return touch(token) != null;
+    }
+
+    @Override
+    public String getUsername(String token) {
+        Session session = touch(token);
+        return session != null ? session.username : null;
+    }
+
+    @Override
+    public void invalidate(String token) throws SQLException {
+        Session session = sessions.remove(token);
+        if (session != null && db != null) {
+            tokensByUser.remove(session.username, token);
+            db.invalidateSession(token);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private Session touch(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+
+        long now = clock.getAsLong();
+        if (session.expiresAt <= now) {
+            sessions.remove(token, session);
+            return null;
+        }
+
+        long expiresAt = now + ttlMillis;
+        session.expiresAt = expiresAt;
+        if (db != null && expiresAt - session.persistedUntil > ttlMillis / 2
+                && session.extensionQueued.compareAndSet(false, true)) {
+            pendingExtensions.add(session);
+        }
+        return session;
+    }
+
+    // Never into a tick already swept, or the session would wait a whole turn of the wheel
+    private void schedule(Session session, long currentTick) {
+        long tick = Math.max(session.expiresAt / tickMillis, currentTick + 1);
+        wheel[(int) (tick % WHEEL_SLOTS)].add(session);
+    }
+
+    void sweep() {
+        long now = clock.getAsLong();
+        long currentTick = now / tickMillis;
+        // After a stall, one pass over every slot is enough to catch up
+        long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_SLOTS + 1);
+
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            Queue<Session> slot = wheel[(int) (tick % WHEEL_SLOTS)];
+            List<Session> stillActive = new ArrayList<>();
+            Session session;
+            while ((session = slot.poll()) != null) {
+                if (sessions.get(session.token) != session) {
+                    continue;  // Already invalidated or replaced
+                }
+                if (session.expiresAt <= now) {
+                    if (sessions.remove(session.token, session) && db != null) {
+                        tokensByUser.remove(session.username, session.token);
+                    }
+                } else {
+                    stillActive.add(session);
+                }
+            }
+            for (Session active : stillActive) {
+                schedule(active, currentTick);
+            }
+        }
+        lastTick = currentTick;
+
+        flushExtensions();
+    }
+
+    private void flushExtensions() {
+        Session session;
+        while ((session = pendingExtensions.poll()) != null) {
+            session.extensionQueued.set(false);
+            long expiresAt = session.expiresAt;
+            try {
+                db.extendSession(session.token, toDateTime(expiresAt));
+                session.persistedUntil = expiresAt;
+            } catch (SQLException e) {
+                // The next validation re-queues it
+                System.err.println("Failed to extend session: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdown();
+        try {
+            sweeper.awaitTermination(tickMillis * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (db != null) {
+            flushExtensions();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// SignedSessionTokens.java
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Self-validating session tokens of the form {@code user.expiry.nonce.mac}, where the MAC is
+ * HMAC-SHA256 over the first three parts. Validating one is pure CPU work: no map or table
+ * lookup, except for the small set of tokens revoked by logout before they expired.
+ *
+ * Expiry is fixed at issue time rather than sliding. Revocations live in this process only,
+ * so every instance that accepts a token must share both the key and the logout path.
+ */
+public class SignedSessionTokens implements SessionBackend {
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(30);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_BYTES = 32;
+    private static final int NONCE_BYTES = 12;
+    private static final int PURGE_THRESHOLD = 1024;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;  // Mac instances are not thread-safe
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();  // nonce -> expiry
+
+    // A fresh random key: tokens do not survive a restart
+    public SignedSessionTokens() {
+        this(generateKey(), DEFAULT_TTL);
+    }
+
+    public SignedSessionTokens(byte[] key, Duration ttl) {
+        if (key.length < KEY_BYTES) {
+            throw new IllegalArgumentException("Key must be at least " + KEY_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(key.clone(), ALGORITHM);
+        this.ttlMillis = ttl.toMillis();
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    public static byte[] generateKey() {
+        byte[] key = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    @Override
+    public String create(String username) {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8))
+            + '.' + Long.toString(System.currentTimeMillis() + ttlMillis, 36)
+            + '.' + ENCODER.encodeToString(nonce);
+        return payload + '.' + ENCODER.encodeToString(sign(payload));
+    }
+
+    @Override
+    public boolean validate(String token) {
+        return getUsername(token) != null;
+    }
+
+    @Override
+    public String getUsername(String token) {
+        if (token == null) {
+            return null;
+        }
+        int userEnd = token.indexOf('.');
+        int expiryEnd = userEnd < 0 ? -1 : token.indexOf('.', userEnd + 1);
+        int payloadEnd = expiryEnd < 0 ? -1 : token.indexOf('.', expiryEnd + 1);
+        if (payloadEnd < 0 || token.indexOf('.', payloadEnd + 1) >= 0) {
+            return null;
+        }
+
+        try {
+            String payload = token.substring(0, payloadEnd);
+            // Compared in encoded form so only the canonical encoding of the MAC is accepted
+            byte[] mac = token.substring(payloadEnd + 1).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(mac, ENCODER.encode(sign(payload)))) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(token.substring(userEnd + 1, expiryEnd), 36);
+            if (expiresAt <= System.currentTimeMillis()) {
+                return null;
+            }
+            if (!revoked.isEmpty() && revoked.containsKey(token.substring(expiryEnd + 1, payloadEnd))) {
+                return null;
+            }
+            return new String(DECODER.decode(token.substring(0, userEnd)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;  // Not base64 or not a number, so not one of ours
+        }
+    }
+
+    // Only tokens that verify are remembered, and only until they would have expired anyway
+    @Override
+    public void invalidate(String token) {
+        if (getUsername(token) == null) {
+            return;
+        }
+        int expiryStart = token.indexOf('.') + 1;
+        int nonceStart = token.indexOf('.', expiryStart) + 1;
+        long expiresAt = Long.parseLong(token.substring(expiryStart, nonceStart - 1), 36);
+        revoked.put(token.substring(nonceStart, token.lastIndexOf('.')), expiresAt);
+
+        if (revoked.size() > PURGE_THRESHOLD) {
+            long now = System.currentTimeMillis();
+            revoked.values().removeIf(expiry -> expiry <= now);
+        }
+    }
+
+    public int getRevokedCount() {
+        return revoked.size();
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+// UserDirectory.java
+import java.sql.SQLException;
+
+/**
+ * Accounts kept outside this process, such as the rows UserImporter writes. DatabaseHelper
+ * answers from the users table; UserManager asks it about names it has not seen yet.
+ */
+public interface UserDirectory {
+    // The stored password hash, or null if there is no such account
+    String getPasswordHash(String username) throws SQLException;
+}
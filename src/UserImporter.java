@@ -0,0 +1,391 @@
+// UserImporter.java
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk account provisioning for semester onboarding. Reads CSV ({@code username,password[,role]},
+ * optional header row) or JSONL ({@code {"username": ..., "password": ..., "role": ...}}) one
+ * chunk at a time, validates and hashes each chunk's rows in parallel on a worker pool, and
+ * hands the valid rows to the sink as one batch. Memory use is bounded by the chunk size plus
+ * the per-row report.
+ */
+public class UserImporter implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    private static final Set<String> ROLES = Set.of("ADMIN", "STUDENT", "INSTRUCTOR", "STAFF", "REVIEWER");
+
+    // Where validated rows go; DatabaseHelper::insertUsers in production
+    public interface UserSink {
+        Set<String> insertUsers(List<DatabaseHelper.NewUser> users) throws SQLException;
+    }
+
+    public enum Status {
+        IMPORTED,
+        INVALID,
+        DUPLICATE,
+        FAILED
+    }
+
+    public static class RowResult {
+        public final int lineNumber;
+        public final String username;
+        public final Status status;
+        public final String message;
+
+        public RowResult(int lineNumber, String username, Status status, String message) {
+            this.lineNumber = lineNumber;
+            this.username = username;
+            this.status = status;
+            this.message = message;
+        }
+    }
+
+    public static class ImportReport {
+        public final List<RowResult> rows;
+        public final long elapsedNanos;
+
+        public ImportReport(List<RowResult> rows, long elapsedNanos) {
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int count(Status status) {
+            int count = 0;
+            for (RowResult row : rows) {
+                if (row.status == status) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows.size() / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
+
+    private static class ParsedRow {
+        final int lineNumber;
+        final String username;
+        final String password;
+        final String role;
+        final String parseError;
+
+        ParsedRow(int lineNumber, String username, String password, String role, String parseError) {
+            this.lineNumber = lineNumber;
+            this.username = username;
+            this.password = password;
+            this.role = role;
+            this.parseError = parseError;
+        }
+    }
+
+    // Outcome of validating and hashing one row on a worker
+    private static class PreparedRow {
+        final ParsedRow row;
+        final DatabaseHelper.NewUser user;  // null when the row was rejected
+        final String error;
+        boolean queued;  // false for a valid row whose username appeared earlier in the file
+
+        PreparedRow(ParsedRow row, DatabaseHelper.NewUser user, String error) {
+            this.row = row;
+            this.user = user;
+            this.error = error;
+        }
+    }
+
+    private final UserSink sink;
+    private final PasswordHasher hasher;
+    private final ExecutorService workers;
+    private final int chunkSize;
+
+    public UserImporter(UserSink sink, PasswordHasher hasher) {
+        this(sink, hasher, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public UserImporter(UserSink sink, PasswordHasher hasher, int workerThreads, int chunkSize) {
+        this.sink = sink;
+        this.hasher = hasher;
+        this.chunkSize = chunkSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "user-import-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public ImportReport importFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        }
+    }
+
+    public ImportReport importFrom(BufferedReader reader) throws IOException {
+        long started = System.nanoTime();
+        List<RowResult> results = new ArrayList<>();
+        Set<String> seen = new HashSet<>();  // usernames already taken earlier in this file
+        List<ParsedRow> chunk = new ArrayList<>(chunkSize);
+
+        String line;
+        int lineNumber = 0;
+        boolean firstRow = true;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            ParsedRow row = parseLine(line, lineNumber);
+            if (firstRow && row.parseError == null && "username".equalsIgnoreCase(row.username)) {
+                firstRow = false;
+                continue;  // CSV header
+            }
+            firstRow = false;
+
+            chunk.add(row);
+            if (chunk.size() == chunkSize) {
+                processChunk(chunk, seen, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            processChunk(chunk, seen, results);
+        }
+
+        return new ImportReport(results, System.nanoTime() - started);
+    }
+
+    private void processChunk(List<ParsedRow> chunk, Set<String> seen, List<RowResult> results) {
+        // Validation and key derivation are the expensive part, so every row gets its own task
+        List<Future<PreparedRow>> futures = new ArrayList<>(chunk.size());
+        for (ParsedRow row : chunk) {
+            futures.add(workers.submit(() -> prepare(row)));
+        }
+
+        List<PreparedRow> prepared = new ArrayList<>(chunk.size());
+        List<DatabaseHelper.NewUser> batch = new ArrayList<>(chunk.size());
+        for (Future<PreparedRow> future : futures) {
+            PreparedRow row = await(future);
+            prepared.add(row);
+            if (row.user != null && seen.add(row.user.username)) {
+                row.queued = true;
+                batch.add(row.user);
+            }
+        }
+
+        Set<String> created;
+        String batchError = null;
+        try {
+            created = sink.insertUsers(batch);
+        } catch (SQLException e) {
+            created = Set.of();
+            batchError = "Insert failed: " + e.getMessage();
+        }
+
+        for (PreparedRow row : prepared) {
+            String username = row.row.username;
+            if (row.user == null) {
+                results.add(new RowResult(row.row.lineNumber, username, Status.INVALID, row.error));
+            } else if (!row.queued) {
+                results.add(new RowResult(row.row.lineNumber, username, Status.DUPLICATE, "Duplicate username in file"));
+            } else if (batchError != null) {
+                results.add(new RowResult(row.row.lineNumber, username, Status.FAILED, batchError));
+            } else if (created.contains(username)) {
+                results.add(new RowResult(row.row.lineNumber, username, Status.IMPORTED, null));
+            } else {
+                results.add(new RowResult(row.row.lineNumber, username, Status.DUPLICATE, "Username already exists"));
+            }
+        }
+    }
+
+    private PreparedRow prepare(ParsedRow row) {
+        if (row.parseError != null) {
+            return new PreparedRow(row, null, row.parseError);
+        }
+
+        int violations = InputValidator.checkUsername(row.username) | InputValidator.checkPassword(row.password);
+        if (violations != 0) {
+            return new PreparedRow(row, null, String.join("; ", InputValidator.messages(violations)));
+        }
+
+        String role = row.role == null || row.role.isEmpty() ? "STUDENT" : row.role.toUpperCase(Locale.ROOT);
+        if (!ROLES.contains(role)) {
+            return new PreparedRow(row, null, "Unknown role: " + row.role);
+        }
+        return new PreparedRow(row, new DatabaseHelper.NewUser(row.username, hasher.hash(row.password), role), null);
+    }
+
+    private static PreparedRow await(Future<PreparedRow> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to prepare row", e.getCause());
+        }
+    }
+
+    private static ParsedRow parseLine(String line, int lineNumber) {
+        String trimmed = line.trim();
+        List<String> fields;
+        try {
+            if (trimmed.startsWith("{")) {
+                Map<String, String> object = parseJsonObject(trimmed);
+                fields = new ArrayList<>();
+                fields.add(object.get("username"));
+                fields.add(object.get("password"));
+                fields.add(object.get("role"));
+            } else {
+                fields = parseCsvLine(line);
+            }
+        } catch (IllegalArgumentException e) {
+            return new ParsedRow(lineNumber, null, null, null, "Malformed line: " + e.getMessage());
+        }
+
+        if (fields.size() < 2 || fields.size() > 3) {
+            return new ParsedRow(lineNumber, null, null, null, "Expected username,password[,role]");
+        }
+        String role = fields.size() == 3 ? fields.get(2) : null;
+        return new ParsedRow(lineNumber, fields.get(0), fields.get(1), role == null ? null : role.trim(), null);
+    }
+
+    // One CSV record per line; fields may be double-quoted, with "" as an escaped quote
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Just enough JSON for one flat object of string (or null) values per line
+    private static Map<String, String> parseJsonObject(String json) {
+        Map<String, String> object = new HashMap<>();
+        int[] pos = {1};
+        skipWhitespace(json, pos);
+        if (peek(json, pos) == '}') {
+            return object;
+        }
+        while (true) {
+            skipWhitespace(json, pos);
+            String key = parseJsonString(json, pos);
+            skipWhitespace(json, pos);
+            expect(json, pos, ':');
+            skipWhitespace(json, pos);
+            String value;
+            if (json.startsWith("null", pos[0])) {
+                pos[0] += 4;
+                value = null;
+            } else {
+                value = parseJsonString(json, pos);
+            }
+            object.put(key, value);
+            skipWhitespace(json, pos);
+            char c = peek(json, pos);
+            pos[0]++;
+            if (c == '}') {
+                return object;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("expected ',' or '}' at " + (pos[0] - 1));
+            }
+        }
+    }
+
+    private static String parseJsonString(String json, int[] pos) {
+        expect(json, pos, '"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            char c = peek(json, pos);
+            pos[0]++;
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = peek(json, pos);
+            pos[0]++;
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 't': value.append('\t'); break;
+                case 'r': value.append('\r'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    if (pos[0] + 4 > json.length()) {
+                        throw new IllegalArgumentException("truncated unicode escape");
+                    }
+                    value.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+    }
+
+    private static char peek(String json, int[] pos) {
+        if (pos[0] >= json.length()) {
+            throw new IllegalArgumentException("unexpected end of line");
+        }
+        return json.charAt(pos[0]);
+    }
+
+    private static void expect(String json, int[] pos, char expected) {
+        if (peek(json, pos) != expected) {
+            throw new IllegalArgumentException("expected '" + expected + "' at " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    private static void skipWhitespace(String json, int[] pos) {
+        while (pos[0] < json.length() && Character.isWhitespace(json.charAt(pos[0]))) {
+            pos[0]++;
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+}
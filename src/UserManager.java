@@ -1,18 +1,30 @@
 // UserManager.java
-import java.util.HashMap;
+import java.sql.SQLException;
 import java.util.Map;
-import java.util.UUID;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class UserManager {
-    // In-memory storage
-    private final Map<String, String> users = new HashMap<>();  // username -> password hash
-    private final Map<String, Integer> loginAttempts = new HashMap<>();  // username -> failed attempts
-    private final Map<String, String> sessions = new HashMap<>();  // token -> username
+public class UserManager implements AutoCloseable {
+    // In-memory storage; safe for concurrent logins without a global lock
+    private final Map<String, String> users = new ConcurrentHashMap<>();  // username -> password hash
+    private final UserDirectory directory;  // null when accounts exist only in memory
+    private final SessionBackend sessions;
+    private final boolean ownsSessions;  // created here, so close() closes it
+    private final LoginThrottle throttle;
 
-    private static final int MAX_LOGIN_ATTEMPTS = 3;
+    private static final int DEFAULT_HASH_QUEUE = 256;
+
+    private final PasswordHasher hasher;
+    // Key derivation is deliberately slow, so it runs on a fixed set of workers; a login flood
+    // waits in the bounded queue (or is turned away) instead of tying up UI and request threads
+    private final ThreadPoolExecutor hashingPool;
 
     public static class AuthResult {
         public final boolean success;
@@ -26,115 +38,233 @@ public class UserManager {
         }
     }
 
-    private String hashPassword(String password) {
+    public UserManager() {
+        this((DatabaseHelper) null);
+    }
+
+    // With a database, sessions are written through to the sessions table and accounts in the
+    // users table (e.g. imported ones) can log in; null keeps both in memory only
+    public UserManager(DatabaseHelper db) {
+        this(db, new Pbkdf2PasswordHasher(), Runtime.getRuntime().availableProcessors(), DEFAULT_HASH_QUEUE);
+    }
+
+    public UserManager(PasswordHasher hasher, int hashingThreads, int hashingQueueSize) {
+        this((DatabaseHelper) null, hasher, hashingThreads, hashingQueueSize);
+    }
+
+    public UserManager(DatabaseHelper db, PasswordHasher hasher, int hashingThreads, int hashingQueueSize) {
+        this(db, restoredStore(db), true, restoredThrottle(db), hasher, hashingThreads, hashingQueueSize);
+    }
+
+    // Pass a SignedSessionTokens to validate sessions without any lookup at all
+    public UserManager(SessionBackend sessions, PasswordHasher hasher, int hashingThreads, int hashingQueueSize) {
+        this(sessions, new LoginThrottle(), hasher, hashingThreads, hashingQueueSize);
+    }
+
+    // The caller keeps ownership of the session backend and closes it itself
+    public UserManager(SessionBackend sessions, LoginThrottle throttle, PasswordHasher hasher,
+                       int hashingThreads, int hashingQueueSize) {
+        this(null, sessions, throttle, hasher, hashingThreads, hashingQueueSize);
+    }
+
+    public UserManager(UserDirectory directory, SessionBackend sessions, LoginThrottle throttle,
+                       PasswordHasher hasher, int hashingThreads, int hashingQueueSize) {
+        this(directory, sessions, false, throttle, hasher, hashingThreads, hashingQueueSize);
+    }
+
+    private UserManager(UserDirectory directory, SessionBackend sessions, boolean ownsSessions,
+                        LoginThrottle throttle, PasswordHasher hasher, int hashingThreads, int hashingQueueSize) {
+        this.directory = directory;
+        this.sessions = sessions;
+        this.ownsSessions = ownsSessions;
+        this.throttle = throttle;
+        this.hasher = hasher;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.hashingPool = new ThreadPoolExecutor(hashingThreads, hashingThreads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(hashingQueueSize), r -> {
+                Thread t = new Thread(r, "password-hasher-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    private static SessionStore restoredStore(DatabaseHelper db) {
+        SessionStore store = new SessionStore(db);
+        if (db != null) {
+            try {
+                store.restore();
+            } catch (SQLException e) {
+                // Not fatal: users whose sessions could not be restored just log in again
+                System.err.println("Failed to restore sessions: " + e.getMessage());
+            }
+        }
+        return store;
+    }
+
+    private static LoginThrottle restoredThrottle(DatabaseHelper db) {
+        LoginThrottle throttle = new LoginThrottle(db);
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(password.getBytes());
-            return Base64.getEncoder().encodeToString(hash);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return null;
+            throttle.restore();
+        } catch (SQLException e) {
+            System.err.println("Failed to restore account locks: " + e.getMessage());
         }
+        return throttle;
     }
 
     public AuthResult login(String username, String password) {
+        return login(username, password, null);
+    }
+
+    // clientId identifies the source of the attempt (e.g. an IP address) for rate limiting
+    public AuthResult login(String username, String password, String clientId) {
+        try {
+            return loginAsync(username, password, clientId).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new AuthResult(false, "Login interrupted", null);
+        } catch (ExecutionException e) {
+            return new AuthResult(false, "Error processing password", null);
+        }
+    }
+
+    /**
+     * Same checks as login(), but password verification completes on the hashing pool, so
+     * the calling thread (e.g. the Swing EDT) is free while the key derivation runs.
+     */
+    public CompletableFuture<AuthResult> loginAsync(String username, String password) {
+        return loginAsync(username, password, null);
+    }
+
+    public CompletableFuture<AuthResult> loginAsync(String username, String password, String clientId) {
         // Check for empty fields
         if (username == null || username.trim().isEmpty()) {
-            return new AuthResult(false, "Please enter a username", null);
+            return CompletableFuture.completedFuture(new AuthResult(false, "Please enter a username", null));
         }
         if (password == null || password.trim().isEmpty()) {
-            return new AuthResult(false, "Please enter a password", null);
+            return CompletableFuture.completedFuture(new AuthResult(false, "Please enter a password", null));
         }
 
-        // Check if user exists
-        if (!users.containsKey(username)) {
-            return new AuthResult(false, "Invalid username or password", null);
+        // Check if user exists; a name not seen yet is looked up in the directory off the calling thread
+        String storedHash = users.get(username);
+        if (storedHash == null && directory != null) {
+            try {
+                return CompletableFuture.supplyAsync(() -> lookUp(username), hashingPool)
+                    .thenCompose(hash -> hash == null ? unknownUser(clientId) : admit(username, password, clientId, hash));
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.completedFuture(new AuthResult(false, "Server is busy. Please try again shortly.", null));
+            }
         }
+        return storedHash == null ? unknownUser(clientId) : admit(username, password, clientId, storedHash);
+    }
 
-        // Check if account is locked
-        int attempts = loginAttempts.getOrDefault(username, 0);
-        if (attempts >= MAX_LOGIN_ATTEMPTS) {
-            return new AuthResult(false, "Account is locked due to too many failed attempts. Please try again later.", null);
+    // Unknown names still count against the client
+    private CompletableFuture<AuthResult> unknownUser(String clientId) {
+        throttle.tryAcquire(null, clientId);
+        return CompletableFuture.completedFuture(new AuthResult(false, "Invalid username or password", null));
+    }
+
+    private CompletableFuture<AuthResult> admit(String username, String password, String clientId, String storedHash) {
+        // Rate limits and locks are checked before any hashing
+        if (throttle.isLocked(username)) {
+            return CompletableFuture.completedFuture(new AuthResult(false,
+                "Account is locked due to too many failed attempts. Please try again later.", null));
+        }
+        if (!throttle.tryAcquire(username, clientId)) {
+            return CompletableFuture.completedFuture(new AuthResult(false,
+                "Too many login attempts. Please try again later.", null));
         }
 
         // Verify password
-        String storedHash = users.get(username);
-        String hashedInput = hashPassword(password);
-
-        if (hashedInput != null && hashedInput.equals(storedHash)) {
-            // Successful login - reset attempts and create session
-            loginAttempts.remove(username);
-            String sessionToken = UUID.randomUUID().toString();
-            sessions.put(sessionToken, username);
-            return new AuthResult(true, "Login successful", sessionToken);
-        } else {
-            // Failed login - increment attempts
-            loginAttempts.put(username, attempts + 1);
-            int remainingAttempts = MAX_LOGIN_ATTEMPTS - attempts - 1;
-            return new AuthResult(false, "Invalid username or password. " + 
-                (remainingAttempts > 0 ? remainingAttempts + " attempts remaining." : "Account will be locked."), null);
+        try {
+            return CompletableFuture.supplyAsync(() -> verifyAndUpgrade(username, password, storedHash), hashingPool)
+                .thenApply(verified -> completeLogin(username, verified));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(new AuthResult(false, "Server is busy. Please try again shortly.", null));
         }
     }
 
-    public AuthResult registerUser(String username, String password) {
-        // Validate username
-        if (username == null || username.trim().isEmpty()) {
-            return new AuthResult(false, "Username cannot be empty", null);
+    // Runs on the hashing pool. A hit is kept in memory like a registered account, so the
+    // directory is asked once per name; a racing login or registration that got there first wins.
+    private String lookUp(String username) {
+        String hash;
+        try {
+            hash = directory.getPasswordHash(username);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
         }
-
-        // Username length check
-        if (username.length() < 6 || username.length() > 30) {
-            return new AuthResult(false, "Username must be between 6-30 characters", null);
+        if (hash == null) {
+            return null;
         }
+        String existing = users.putIfAbsent(username, hash);
+        return existing != null ? existing : hash;
+    }
 
-        // Username character validation
-        if (!username.matches("^[a-zA-Z0-9._]+$")) {
-            return new AuthResult(false, "Username can only contain letters, numbers, dots, and underscores", null);
+    // Runs on the hashing pool. Hashes from an older scheme or a lower cost are replaced
+    // after a successful check, while the plaintext is still at hand.
+    private boolean verifyAndUpgrade(String username, String password, String storedHash) {
+        if (!hasher.verify(password, storedHash)) {
+            return false;
+        }
+        if (hasher.needsRehash(storedHash)) {
+            users.replace(username, storedHash, hasher.hash(password));
         }
+        return true;
+    }
 
-        // Check start/end characters
-        if (username.startsWith(".") || username.startsWith("_") || 
-            username.endsWith(".") || username.endsWith("_")) {
-            return new AuthResult(false, "Username cannot start or end with dots or underscores", null);
+    private AuthResult completeLogin(String username, boolean verified) {
+        if (verified) {
+            // Successful login - reset attempts and create session
+            throttle.recordSuccess(username);
+            try {
+                String sessionToken = sessions.create(username);
+                return new AuthResult(true, "Login successful", sessionToken);
+            } catch (SQLException e) {
+                return new AuthResult(false, "Could not start a session. Please try again.", null);
+            }
+        } else {
+            // Failed login - the attempt was already counted on admission; this may lock the account
+            int remainingAttempts = throttle.recordFailure(username);
+            return new AuthResult(false, "Invalid username or password. " +
+                (remainingAttempts > 0 ? remainingAttempts + " attempts remaining." : "Account will be locked."), null);
         }
+    }
 
-        // Check consecutive special characters
-        if (username.contains("..") || username.contains("__")) {
-            return new AuthResult(false, "Username cannot contain consecutive dots or underscores", null);
+    private String hashPassword(String password) {
+        try {
+            return hashingPool.submit(() -> hasher.hash(password)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | RejectedExecutionException e) {
+            return null;
         }
+    }
 
-        // Check for at least one letter
-        if (!username.matches(".*[a-zA-Z].*")) {
-            return new AuthResult(false, "Username must contain at least one letter", null);
+    public AuthResult registerUser(String username, String password) {
+        // Validate username; every rule is checked in one pass, the first broken one is reported
+        int usernameViolations = InputValidator.checkUsername(username);
+        if (usernameViolations != 0) {
+            return new AuthResult(false, InputValidator.firstMessage(usernameViolations), null);
         }
 
-        // Check if username exists
+        // Check if username exists (cheap early exit; putIfAbsent below is what guarantees uniqueness)
         if (users.containsKey(username)) {
             return new AuthResult(false, "Username already exists", null);
         }
-
-        // Validate password
-        if (password == null || password.trim().isEmpty()) {
-            return new AuthResult(false, "Password cannot be empty", null);
-        }
-
-        // Password length check
-        if (password.length() < 8) {
-            return new AuthResult(false, "Password must be at least 8 characters long", null);
+        if (directory != null) {
+            try {
+                if (directory.getPasswordHash(username) != null) {
+                    return new AuthResult(false, "Username already exists", null);
+                }
+            } catch (SQLException e) {
+                return new AuthResult(false, "Could not check the username. Please try again.", null);
+            }
         }
 
-        // Password complexity checks
-        if (!password.matches(".*[A-Z].*")) {
-            return new AuthResult(false, "Password must contain at least one uppercase letter", null);
-        }
-        if (!password.matches(".*[a-z].*")) {
-            return new AuthResult(false, "Password must contain at least one lowercase letter", null);
-        }
-        if (!password.matches(".*[0-9].*")) {
-            return new AuthResult(false, "Password must contain at least one number", null);
-        }
-        if (!password.matches(".*[^a-zA-Z0-9].*")) {
-            return new AuthResult(false, "Password must contain at least one special character", null);
+        // Validate password
+        int passwordViolations = InputValidator.checkPassword(password);
+        if (passwordViolations != 0) {
+            return new AuthResult(false, InputValidator.firstMessage(passwordViolations), null);
         }
 
         // Hash password and store user
@@ -143,21 +273,42 @@ public class UserManager {
             return new AuthResult(false, "Error processing password", null);
         }
 
-        users.put(username, hashedPassword);
+        // Atomic per key, so two concurrent registrations of the same name cannot both succeed
+        if (users.putIfAbsent(username, hashedPassword) != null) {
+            return new AuthResult(false, "Username already exists", null);
+        }
         return new AuthResult(true, "Registration successful", null);
     }
 
+    // Neither session backend queries the database here
     public boolean validateSession(String sessionToken) {
-        return sessionToken != null && sessions.containsKey(sessionToken);
+        return sessions.validate(sessionToken);
     }
 
     public void invalidateSession(String sessionToken) {
         if (sessionToken != null) {
-            sessions.remove(sessionToken);
+            try {
+                sessions.invalidate(sessionToken);
+            } catch (SQLException e) {
+                System.err.println("Failed to invalidate session: " + e.getMessage());
+            }
         }
     }
 
     public String getUsernameFromSession(String sessionToken) {
-        return sessions.get(sessionToken);
+        return sessions.getUsername(sessionToken);
+    }
+
+    // Stops the hashing workers and, if this manager created it, the session store's sweeper
+    @Override
+    public void close() {
+        hashingPool.shutdown();
+        if (ownsSessions && sessions instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) sessions).close();
+            } catch (Exception e) {
+                System.err.println("Failed to close session store: " + e.getMessage());
+            }
+        }
     }
 }
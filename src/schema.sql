@@ -3,6 +3,8 @@ CREATE TABLE users (
     user_id SERIAL PRIMARY KEY,
     username VARCHAR(30) UNIQUE NOT NULL,
     password_hash VARCHAR(255) NOT NULL,
+    role VARCHAR(20) NOT NULL DEFAULT 'STUDENT'
+        CHECK (role IN ('ADMIN', 'STUDENT', 'INSTRUCTOR', 'STAFF', 'REVIEWER')),
     created_at TIMESTAMP NOT NULL,
     failed_attempts INTEGER DEFAULT 0,
     locked_until TIMESTAMP,
@@ -19,18 +21,62 @@ CREATE TABLE sessions (
     is_active BOOLEAN DEFAULT true
 );
 
--- Create emails table
+-- Create email_bodies table: one row per distinct body, shared by every message that
+-- carries it (a broadcast to 500 recipients stores its text once). ref_count is kept
+-- by maintain_email_body_refs_trigger; a body is removed when its last message is.
+-- Bodies at or above the client's threshold are stored deflated (see MessageBody.java)
+-- and only inflated by the client that displays them.
+CREATE TABLE email_bodies (
+    body_hash BYTEA PRIMARY KEY,  -- SHA-256 of the UTF-8 text, whatever the codec
+    codec VARCHAR(10) NOT NULL CHECK (codec IN ('PLAIN', 'DEFLATE')),
+    body BYTEA NOT NULL,          -- UTF-8, deflated when codec = 'DEFLATE'
+    body_length INTEGER NOT NULL,  -- UTF-8 length before compression
+    body_vector TSVECTOR NOT NULL,  -- the body's search terms, weight B, computed from plain text
+    ref_count INTEGER NOT NULL DEFAULT 0
+);
+
+-- Create emails table, range-partitioned by month of sent_date so that old terms'
+-- traffic stops weighing on inserts, indexes and vacuum for the current one. Monthly
+-- partitions are created ahead of time by ensure_email_partitions(); anything outside
+-- them lands in emails_default. The key has to include sent_date, so queries that
+-- know a message's date should match on it too and let the planner prune.
 CREATE TABLE emails (
-    email_id SERIAL PRIMARY KEY,
+    email_id SERIAL,
     from_user VARCHAR(30) REFERENCES users(username),
     to_user VARCHAR(30) REFERENCES users(username),
     subject VARCHAR(255) NOT NULL,
-    content TEXT NOT NULL,
+    body_hash BYTEA NOT NULL REFERENCES email_bodies(body_hash),  -- write through intern_email_body()
     sent_date TIMESTAMP NOT NULL,
     status VARCHAR(20) NOT NULL CHECK (status IN ('SENT', 'DRAFT', 'DELETED')),
-    is_read BOOLEAN DEFAULT false
+    is_read BOOLEAN DEFAULT false,
+    -- Replies and forwards reference the message they quote instead of copying its body.
+    -- Not a foreign key: a partitioned table can only be referenced by its whole primary
+    -- key, so a parent that was deleted or archived simply no longer resolves.
+    parent_id INTEGER,
+    thread_id INTEGER NOT NULL,  -- defaults to email_id via assign_email_thread_trigger
+    search_vector TSVECTOR,  -- maintained by update_email_search_vector_trigger
+    PRIMARY KEY (email_id, sent_date)
+) PARTITION BY RANGE (sent_date);
+
+CREATE TABLE emails_default PARTITION OF emails DEFAULT;
+
+-- Create mailbox_counters table, kept current by triggers on emails so that
+-- unread badges and folder sizes are a single primary-key lookup
+CREATE TABLE mailbox_counters (
+    username VARCHAR(30) PRIMARY KEY,
+    inbox_total INTEGER NOT NULL DEFAULT 0,
+    inbox_unread INTEGER NOT NULL DEFAULT 0,
+    sent_total INTEGER NOT NULL DEFAULT 0,
+    draft_total INTEGER NOT NULL DEFAULT 0,
+    -- Taken from mailbox_revision_seq whenever the folder changes, so clients caching
+    -- folder pages can tell with one lookup which folders moved
+    inbox_revision BIGINT NOT NULL DEFAULT 0,
+    sent_revision BIGINT NOT NULL DEFAULT 0,
+    draft_revision BIGINT NOT NULL DEFAULT 0
 );
 
+CREATE SEQUENCE mailbox_revision_seq;
+
 -- Create username_history table
 CREATE TABLE username_history (
     history_id SERIAL PRIMARY KEY,
@@ -44,10 +90,61 @@ CREATE TABLE username_history (
 CREATE INDEX idx_username_lower ON users (LOWER(username));
 CREATE INDEX idx_sessions_token ON sessions(token);
 CREATE INDEX idx_sessions_user ON sessions(user_id);
-CREATE INDEX idx_emails_from_user ON emails(from_user);
-CREATE INDEX idx_emails_to_user ON emails(to_user);
+-- Composite indexes back the keyset-paginated folder queries: (owner, sent_date, email_id)
+-- lets a page seek straight to its cursor instead of sorting the whole folder
+CREATE INDEX idx_emails_inbox_page ON emails (to_user, sent_date DESC, email_id DESC);
+CREATE INDEX idx_emails_outbox_page ON emails (from_user, status, sent_date DESC, email_id DESC);
+-- Sender and subject orders (DatabaseHelper.SortKey) walk these in the same way
+CREATE INDEX idx_emails_inbox_by_sender ON emails (to_user, from_user, email_id DESC);
+CREATE INDEX idx_emails_inbox_by_subject ON emails (to_user, subject, email_id DESC);
+CREATE INDEX idx_emails_outbox_by_subject ON emails (from_user, status, subject, email_id DESC);
 CREATE INDEX idx_emails_sent_date ON emails(sent_date);
+-- Full-text search; the folder and date filters are applied to the GIN matches
+CREATE INDEX idx_emails_search ON emails USING GIN (search_vector);
 CREATE INDEX idx_emails_status ON emails(status);
+-- A whole conversation is one range scan; the parent index serves quoted-original lookups
+CREATE INDEX idx_emails_thread ON emails (thread_id, sent_date, email_id);
+CREATE INDEX idx_emails_parent ON emails (parent_id);
+CREATE INDEX idx_emails_body ON emails (body_hash);
+
+-- Messages with their bodies joined back in, for the queries that read content
+CREATE VIEW email_messages AS
+SELECT e.*, b.codec, b.body, b.body_length
+FROM emails e
+JOIN email_bodies b ON b.body_hash = e.body_hash;
+
+-- Create function to store a body once and return the hash emails.body_hash points at.
+-- p_text is the plain text of a compressed body; plain bodies are their own UTF-8 text. The
+-- hash covers that text only, so the same body shares one row however a client stored it
+-- (the first writer's codec is kept). The no-op updates lock an existing row, so a
+-- concurrent delete cannot collect it before the caller's insert has taken its reference
+-- and committed.
+CREATE OR REPLACE FUNCTION intern_email_body(p_codec VARCHAR, p_body BYTEA, p_length INTEGER, p_text TEXT)
+RETURNS BYTEA AS $$
+DECLARE
+    v_hash BYTEA := sha256(CASE WHEN p_text IS NULL THEN p_body ELSE convert_to(p_text, 'UTF8') END);
+BEGIN
+    UPDATE email_bodies SET ref_count = ref_count WHERE body_hash = v_hash;
+    IF NOT FOUND THEN
+        INSERT INTO email_bodies AS b (body_hash, codec, body, body_length, body_vector)
+        VALUES (v_hash, p_codec, p_body, p_length,
+                setweight(to_tsvector('english', COALESCE(p_text, convert_from(p_body, 'UTF8'))), 'B'))
+        ON CONFLICT (body_hash) DO UPDATE
+        SET ref_count = b.ref_count;
+    END IF;
+    RETURN v_hash;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create function to remove bodies that were interned but never referenced, e.g. by a
+-- send whose recipients were all rejected. Rows still being referenced are locked by
+-- intern_email_body and are re-checked once that lock is released.
+CREATE OR REPLACE FUNCTION cleanup_unreferenced_bodies()
+RETURNS void AS $$
+BEGIN
+    DELETE FROM email_bodies WHERE ref_count = 0;
+END;
+$$ LANGUAGE plpgsql;
 
 -- Create function to auto-expire sessions
 CREATE OR REPLACE FUNCTION cleanup_expired_sessions()
@@ -63,6 +160,65 @@ $$ LANGUAGE plpgsql;
 -- Create a scheduled job to run cleanup every hour
 CREATE EXTENSION IF NOT EXISTS pg_cron;
 SELECT cron.schedule('0 * * * *', 'SELECT cleanup_expired_sessions()');
+SELECT cron.schedule('30 3 * * *', 'SELECT cleanup_unreferenced_bodies()');
+
+-- Create function to make sure the current month and the next p_months_ahead months have
+-- partitions. Running ahead keeps new mail out of emails_default: a partition cannot be
+-- created for a range the default partition already holds rows in.
+CREATE OR REPLACE FUNCTION ensure_email_partitions(p_months_ahead INTEGER DEFAULT 3)
+RETURNS void AS $$
+DECLARE
+    v_start DATE;
+    v_name TEXT;
+BEGIN
+    FOR i IN 0..p_months_ahead LOOP
+        v_start := (date_trunc('month', CURRENT_DATE) + make_interval(months => i))::DATE;
+        v_name := 'emails_' || to_char(v_start, 'YYYY_MM');
+        IF to_regclass(v_name) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF emails FOR VALUES FROM (%L) TO (%L)',
+                           v_name, v_start, (v_start + INTERVAL '1 month')::DATE);
+        END IF;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT ensure_email_partitions();
+SELECT cron.schedule('0 2 * * *', 'SELECT ensure_email_partitions()');
+
+-- Create function for archive mode: detach monthly partitions that ended more than p_keep
+-- ago and park them in the email_archive schema, where they stay queryable but no longer
+-- cost anything on emails. Archived rows keep their email_bodies references (and foreign
+-- key), so shared bodies are not collected from under them. Run it by hand at the end of a
+-- term, or schedule it once the retention period is agreed.
+CREATE SCHEMA IF NOT EXISTS email_archive;
+
+CREATE OR REPLACE FUNCTION archive_email_partitions(p_keep INTERVAL DEFAULT INTERVAL '2 years')
+RETURNS INTEGER AS $$
+DECLARE
+    v_partition RECORD;
+    v_cutoff DATE := date_trunc('month', CURRENT_DATE - p_keep)::DATE;
+    v_archived INTEGER := 0;
+BEGIN
+    FOR v_partition IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'emails'::regclass
+        AND c.relname ~ '^emails_[0-9]{4}_[0-9]{2}$'
+        AND to_date(substr(c.relname, 8), 'YYYY_MM') < v_cutoff
+    LOOP
+        EXECUTE format('ALTER TABLE emails DETACH PARTITION %I', v_partition.relname);
+        EXECUTE format('ALTER TABLE %I SET SCHEMA email_archive', v_partition.relname);
+        v_archived := v_archived + 1;
+    END LOOP;
+
+    -- Detaching fires no row triggers, so the archived mail is taken out of the counters here
+    IF v_archived > 0 THEN
+        PERFORM rebuild_mailbox_counters();
+    END IF;
+    RETURN v_archived;
+END;
+$$ LANGUAGE plpgsql;
 
 -- Create function to prevent duplicate active sessions
 CREATE OR REPLACE FUNCTION deactivate_old_sessions()
@@ -83,6 +239,178 @@ AFTER INSERT ON sessions
 FOR EACH ROW
 EXECUTE FUNCTION deactivate_old_sessions();
 
+-- Create function to apply one email row's contribution (sign = 1 or -1) to the counters
+CREATE OR REPLACE FUNCTION bump_mailbox_counters(
+    p_from_user VARCHAR, p_to_user VARCHAR, p_status VARCHAR, p_is_read BOOLEAN, p_sign INTEGER)
+RETURNS void AS $$
+BEGIN
+    IF p_status = 'SENT' THEN
+        INSERT INTO mailbox_counters AS c (username, inbox_total, inbox_unread, inbox_revision)
+        VALUES (p_to_user, p_sign, CASE WHEN p_is_read THEN 0 ELSE p_sign END, nextval('mailbox_revision_seq'))
+        ON CONFLICT (username) DO UPDATE
+        SET inbox_total = c.inbox_total + EXCLUDED.inbox_total,
+            inbox_unread = c.inbox_unread + EXCLUDED.inbox_unread,
+            inbox_revision = EXCLUDED.inbox_revision;
+
+        INSERT INTO mailbox_counters AS c (username, sent_total, sent_revision)
+        VALUES (p_from_user, p_sign, nextval('mailbox_revision_seq'))
+        ON CONFLICT (username) DO UPDATE
+        SET sent_total = c.sent_total + EXCLUDED.sent_total,
+            sent_revision = EXCLUDED.sent_revision;
+    ELSIF p_status = 'DRAFT' THEN
+        INSERT INTO mailbox_counters AS c (username, draft_total, draft_revision)
+        VALUES (p_from_user, p_sign, nextval('mailbox_revision_seq'))
+        ON CONFLICT (username) DO UPDATE
+        SET draft_total = c.draft_total + EXCLUDED.draft_total,
+            draft_revision = EXCLUDED.draft_revision;
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create function to keep mailbox_counters in step with emails
+CREATE OR REPLACE FUNCTION maintain_mailbox_counters()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM bump_mailbox_counters(OLD.from_user, OLD.to_user, OLD.status, OLD.is_read, -1);
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM bump_mailbox_counters(NEW.from_user, NEW.to_user, NEW.status, NEW.is_read, 1);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create triggers for counter maintenance. Updates to anything a folder listing shows also
+-- count, so that a draft edited elsewhere (subject, body or date only) moves draft_revision
+-- and cached listings of it are dropped; the -1/+1 pair leaves the totals unchanged
+CREATE TRIGGER maintain_mailbox_counters_insert_delete_trigger
+AFTER INSERT OR DELETE ON emails
+FOR EACH ROW
+EXECUTE FUNCTION maintain_mailbox_counters();
+
+CREATE TRIGGER maintain_mailbox_counters_update_trigger
+AFTER UPDATE ON emails
+FOR EACH ROW
+WHEN (OLD.status IS DISTINCT FROM NEW.status
+      OR OLD.is_read IS DISTINCT FROM NEW.is_read
+      OR OLD.from_user IS DISTINCT FROM NEW.from_user
+      OR OLD.to_user IS DISTINCT FROM NEW.to_user
+      OR OLD.subject IS DISTINCT FROM NEW.subject
+      OR OLD.body_hash IS DISTINCT FROM NEW.body_hash
+      OR OLD.sent_date IS DISTINCT FROM NEW.sent_date)
+EXECUTE FUNCTION maintain_mailbox_counters();
+
+-- Create function to rebuild the counters from scratch if they ever drift
+CREATE OR REPLACE FUNCTION rebuild_mailbox_counters()
+RETURNS void AS $$
+BEGIN
+    DELETE FROM mailbox_counters;
+    INSERT INTO mailbox_counters (username, inbox_total, inbox_unread, sent_total, draft_total,
+                                  inbox_revision, sent_revision, draft_revision)
+    SELECT username, SUM(inbox_total), SUM(inbox_unread), SUM(sent_total), SUM(draft_total),
+           nextval('mailbox_revision_seq'), nextval('mailbox_revision_seq'), nextval('mailbox_revision_seq')
+    FROM (
+        SELECT to_user AS username, 1 AS inbox_total,
+               CASE WHEN is_read THEN 0 ELSE 1 END AS inbox_unread, 0 AS sent_total, 0 AS draft_total
+        FROM emails WHERE status = 'SENT'
+        UNION ALL
+        SELECT from_user, 0, 0, 1, 0 FROM emails WHERE status = 'SENT'
+        UNION ALL
+        SELECT from_user, 0, 0, 0, 1 FROM emails WHERE status = 'DRAFT'
+    ) contributions
+    WHERE username IS NOT NULL
+    GROUP BY username;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create function to keep email_bodies.ref_count in step with emails and collect a body
+-- when its last message goes; rows are locked by the UPDATE/DELETE, so concurrent
+-- deletes of messages sharing a body cannot both miss the last reference. An UPDATE that
+-- moves a row to another partition (a draft saved in a new month) arrives as a DELETE
+-- followed by an INSERT, so the row's new copy is checked for before collecting.
+CREATE OR REPLACE FUNCTION maintain_email_body_refs()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        UPDATE email_bodies SET ref_count = ref_count + 1 WHERE body_hash = NEW.body_hash;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        UPDATE email_bodies SET ref_count = ref_count - 1 WHERE body_hash = OLD.body_hash;
+        DELETE FROM email_bodies b
+        WHERE b.body_hash = OLD.body_hash AND b.ref_count = 0
+        AND NOT EXISTS (SELECT 1 FROM emails e WHERE e.body_hash = OLD.body_hash);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create triggers for body reference counting
+CREATE TRIGGER maintain_email_body_refs_insert_delete_trigger
+AFTER INSERT OR DELETE ON emails
+FOR EACH ROW
+EXECUTE FUNCTION maintain_email_body_refs();
+
+CREATE TRIGGER maintain_email_body_refs_update_trigger
+AFTER UPDATE OF body_hash ON emails
+FOR EACH ROW
+WHEN (OLD.body_hash IS DISTINCT FROM NEW.body_hash)
+EXECUTE FUNCTION maintain_email_body_refs();
+
+-- Create function to report what body sharing saves. To measure a synthetic broadcast,
+-- run it in a transaction and roll back afterwards, e.g.
+--   BEGIN;
+--   WITH body AS (SELECT intern_email_body('PLAIN', convert_to(repeat('Exam moved to Friday. ', 200), 'UTF8'),
+--                                          4400, NULL) AS body_hash)
+--   INSERT INTO emails (from_user, to_user, subject, body_hash, sent_date, status)
+--   SELECT 'instructor1', username, 'Announcement', body.body_hash, CURRENT_TIMESTAMP, 'SENT'
+--   FROM users, body;
+--   SELECT * FROM email_body_savings();
+--   ROLLBACK;
+CREATE OR REPLACE FUNCTION email_body_savings()
+RETURNS TABLE (messages BIGINT, distinct_bodies BIGINT, logical_bytes BIGINT,
+               distinct_bytes BIGINT, stored_bytes BIGINT) AS $$
+    SELECT COALESCE(SUM(ref_count), 0),
+           COUNT(*),
+           COALESCE(SUM(ref_count::BIGINT * body_length), 0),
+           COALESCE(SUM(body_length::BIGINT), 0),
+           COALESCE(SUM(octet_length(body)::BIGINT), 0)
+    FROM email_bodies;
+$$ LANGUAGE sql STABLE;
+
+-- Create function to index subject (weight A) and body (weight B) for full-text search;
+-- the body's terms were computed once from its plain text when it was interned
+CREATE OR REPLACE FUNCTION update_email_search_vector()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.search_vector :=
+        setweight(to_tsvector('english', COALESCE(NEW.subject, '')), 'A') ||
+        COALESCE((SELECT body_vector FROM email_bodies WHERE body_hash = NEW.body_hash), ''::tsvector);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create trigger for search maintenance; read flags and status changes do not re-index
+CREATE TRIGGER update_email_search_vector_trigger
+BEFORE INSERT OR UPDATE OF subject, body_hash ON emails
+FOR EACH ROW
+EXECUTE FUNCTION update_email_search_vector();
+
+-- Create function to start a new thread for any message not inserted into an existing one
+CREATE OR REPLACE FUNCTION assign_email_thread()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.thread_id := COALESCE(NEW.thread_id, NEW.email_id);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create trigger for thread assignment
+CREATE TRIGGER assign_email_thread_trigger
+BEFORE INSERT ON emails
+FOR EACH ROW
+EXECUTE FUNCTION assign_email_thread();
+
 -- Create function to track username changes
 CREATE OR REPLACE FUNCTION track_username_changes()
 RETURNS TRIGGER AS $$